@@ -0,0 +1,95 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton, to find whether a text contains any of a set of strings in a single
+ * pass over it, whatever the number of strings. The automaton is built as a full transition table,
+ * so each character costs one array lookup.
+ */
+public class AhoCorasick {
+    private final int[] charClass = new int[128];     // 0 for the characters in none of the patterns
+    private final int[][] next;
+    private final boolean[] match;
+
+    /**
+     * @param patterns ASCII strings to look for
+     */
+    public AhoCorasick(String... patterns) {
+        int classes = 1;
+        for (String pattern : patterns) {
+            for (char c : pattern.toCharArray()) {
+                if (c >= charClass.length) {
+                    throw new IllegalArgumentException("Only ASCII patterns are supported: " + pattern);
+                }
+                if (charClass[c] == 0) {
+                    charClass[c] = classes++;
+                }
+            }
+        }
+
+        // trie of the patterns, 0 (the root) meaning no transition yet
+        List<int[]> states = new ArrayList<>();
+        BitSet terminal = new BitSet();
+        states.add(new int[classes]);
+        for (String pattern : patterns) {
+            int state = 0;
+            for (char c : pattern.toCharArray()) {
+                int[] row = states.get(state);
+                if (row[charClass[c]] == 0) {
+                    states.add(new int[classes]);
+                    row[charClass[c]] = states.size() - 1;
+                }
+                state = row[charClass[c]];
+            }
+            terminal.set(state);
+        }
+
+        // breadth first, so the failure state of a state is always complete before the state itself
+        int[] fail = new int[states.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int k = 1; k < classes; k++) {
+            if (states.get(0)[k] != 0) {
+                queue.add(states.get(0)[k]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            int[] row = states.get(state);
+            if (terminal.get(fail[state])) {
+                terminal.set(state);
+            }
+            for (int k = 1; k < classes; k++) {
+                if (row[k] != 0) {
+                    fail[row[k]] = states.get(fail[state])[k];
+                    queue.add(row[k]);
+                }
+                else {
+                    row[k] = states.get(fail[state])[k];
+                }
+            }
+        }
+
+        next = states.toArray(new int[0][]);
+        match = new boolean[next.length];
+        for (int state = terminal.nextSetBit(0); state >= 0; state = terminal.nextSetBit(state + 1)) {
+            match[state] = true;
+        }
+    }
+
+    /**
+     * @return Whether the text contains at least one of the patterns
+     */
+    public boolean containsAny(CharSequence text) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            state = next[state][c < charClass.length ? charClass[c] : 0];
+            if (match[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
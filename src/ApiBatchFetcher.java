@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jsoup.HttpStatusException;
+
+/**
+ * Fetch the rendered content of many pages in one request through the MediaWiki API
+ * (prop=revisions with rvparse), instead of one index.php request per page. Only the content
+ * html is returned, without the skin around it, and the response is parsed as it's streamed in.
+ * The API parses only so many pages per request and says where to go on with a <continue>
+ * element, which is followed until the batch is complete. rvparse is deprecated in favour of
+ * action=parse, which takes a single page, but it's still the only way to have many pages parsed
+ * in one request.
+ */
+public class ApiBatchFetcher {
+    public static final int MAX_TITLES = 50;
+
+    private final String apiUrl;
+    private final HttpTransport transport;
+    private final RateController rateController;
+
+    public ApiBatchFetcher(String apiUrl, HttpTransport transport, RateController rateController) {
+        this.apiUrl = apiUrl;
+        this.transport = transport;
+        this.rateController = rateController;
+    }
+
+    /**
+     * @param titles At most MAX_TITLES titles
+     * @return The rendered html of each page, by title. Missing pages are mapped to null, and the
+     * pages the server left out of the responses are not in the map.
+     * @throws HttpStatusException If the server answered with an error
+     */
+    public Map<String, String> fetch(List<String> titles) throws IOException, InterruptedException {
+        Map<String, String> pages = new HashMap<>();
+        Map<String, String> continuation = new HashMap<>();
+        // each response has at least one more page, or it wouldn't have stopped
+        for (int i = 0; i <= titles.size(); i++) {
+            Map<String, String> form = new LinkedHashMap<>();
+            form.put("action", "query");
+            form.put("prop", "revisions");
+            form.put("rvprop", "content");
+            form.put("rvparse", "1");
+            form.put("format", "xml");
+            form.put("titles", String.join("|", titles));
+            form.putAll(continuation);
+
+            continuation.clear();
+            pages.putAll(request(form, continuation));
+            if (continuation.isEmpty()) {
+                break;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @param continuation Filled with the attributes of the <continue> element, if the response has one
+     */
+    private Map<String, String> request(Map<String, String> form, Map<String, String> continuation)
+            throws IOException, InterruptedException {
+        rateController.acquire();
+        long start = System.nanoTime();
+        try (HttpTransport.Response response = transport.postForm(apiUrl, form)) {
+            if (response.status == 429 || response.status == 503) {
+                rateController.onThrottled(RateController.parseRetryAfter(response.header("Retry-After")));
+                throw new HttpStatusException("Throttled", response.status, apiUrl);
+            }
+            rateController.onSuccess(System.nanoTime() - start);
+            if (response.status != 200) {
+                throw new HttpStatusException("HTTP error fetching pages", response.status, apiUrl);
+            }
+
+            return parse(response.body, continuation);
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid API response", e);
+        }
+    }
+
+    /**
+     * Read the pages out of an API response. Both the old (content directly in <rev>) and the new
+     * (content in <rev><slots><slot>) formats are supported. The pages that are in the response but
+     * not parsed yet, without a <rev>, are left out.
+     * @param continuation Filled with the attributes of the <continue> element, to send with the next request
+     */
+    static Map<String, String> parse(InputStream xml, Map<String, String> continuation) throws XMLStreamException {
+        Map<String, String> pages = new HashMap<>();
+        Map<String, String> normalizedFrom = new HashMap<>();
+
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(xml);
+        String title = null;
+        StringBuilder content = null;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamReader.START_ELEMENT:
+                    switch (reader.getLocalName()) {
+                        case "continue":
+                            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                                continuation.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                            }
+                            break;
+                        case "n":
+                            // the API may normalize the titles, map them back to what we asked for
+                            normalizedFrom.put(reader.getAttributeValue(null, "to"), reader.getAttributeValue(null, "from"));
+                            break;
+                        case "page":
+                            title = reader.getAttributeValue(null, "title");
+                            if (reader.getAttributeValue(null, "missing") != null) {
+                                pages.put(normalizedFrom.getOrDefault(title, title), null);
+                                title = null;
+                            }
+                            break;
+                        case "rev":
+                            content = title != null ? new StringBuilder() : null;
+                            break;
+                    }
+                    break;
+                case XMLStreamReader.CHARACTERS:
+                case XMLStreamReader.CDATA:
+                    if (content != null) {
+                        content.append(reader.getText());
+                    }
+                    break;
+                case XMLStreamReader.END_ELEMENT:
+                    if (reader.getLocalName().equals("rev") && content != null) {
+                        pages.put(normalizedFrom.getOrDefault(title, title), content.toString());
+                        content = null;
+                    }
+                    break;
+            }
+        }
+        reader.close();
+        return pages;
+    }
+}
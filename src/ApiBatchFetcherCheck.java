@@ -0,0 +1,128 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jsoup.Jsoup;
+import org.jsoup.select.Elements;
+
+/**
+ * Check ApiBatchFetcher and the cleaning of what it returns against a local stand-in for api.php
+ * that serves canned responses (fixtures/api_batch_response*.xml), run as a program:
+ *   java ApiBatchFetcherCheck
+ * - all the titles go in one request, and the pages come back under the titles that were asked
+ *   for, missing and normalized ones included
+ * - a response that stops after the first page, with a <continue>, is followed by a request with
+ *   its parameters, and the pages of both responses are returned
+ * - the language sections are found although the API's headers have [edit] links in them, in
+ *   both the older (span.mw-headline) and the newer (div.mw-heading) markup
+ * Exits with an error if any of these doesn't hold. -Dfixtures=<folder> if not run from the project folder.
+ */
+public class ApiBatchFetcherCheck {
+    private static final String FIXTURES = System.getProperty("fixtures", "fixtures");
+    private static final List<String> TITLES = Arrays.asList("xyzzy", "chat", "chat_noir", "été");
+
+    // served one after the other by the server's thread, and the forms of the requests
+    private static final Queue<byte[]> responses = new ConcurrentLinkedQueue<>();
+    private static final List<Map<String, String>> forms = Collections.synchronizedList(new ArrayList<>());
+
+    public static void main(String argv[]) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/w/api.php", ApiBatchFetcherCheck::handle);
+        server.start();
+        try {
+            check("http://127.0.0.1:" + server.getAddress().getPort() + "/w/api.php");
+            System.out.println("ApiBatchFetcherCheck: OK");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            server.stop(0);
+        }
+        System.exit(0);     // the HTTP client's threads would keep the JVM alive for a while
+    }
+
+    private static void check(String apiUrl) throws Exception {
+        ApiBatchFetcher fetcher = new ApiBatchFetcher(apiUrl, new HttpTransport(Duration.ofSeconds(10)),
+                new RateController(100, 1, 100, 1));
+        responses.add(Files.readAllBytes(Paths.get(FIXTURES, "api_batch_response.xml")));
+        Map<String, String> pages = fetcher.fetch(TITLES);
+        check(forms.size() == 1, forms.size() + " requests for one batch");
+        checkPages(pages);
+
+        forms.clear();
+        responses.add(Files.readAllBytes(Paths.get(FIXTURES, "api_batch_response_continue1.xml")));
+        responses.add(Files.readAllBytes(Paths.get(FIXTURES, "api_batch_response_continue2.xml")));
+        pages = fetcher.fetch(TITLES);
+        check(forms.size() == 2, forms.size() + " requests for a batch in two responses");
+        check(!forms.get(0).containsKey("rvcontinue"), "the first request continues something: " + forms.get(0));
+        check("2342|2342".equals(forms.get(1).get("rvcontinue")) && "||".equals(forms.get(1).get("continue")),
+                "the second request doesn't continue the first one: " + forms.get(1));
+        checkPages(pages);
+    }
+
+    private static void checkPages(Map<String, String> pages) {
+        for (Map<String, String> form : forms) {
+            check(form.get("titles").equals(String.join("|", TITLES)), "titles sent: " + form.get("titles"));
+            check(form.get("action").equals("query") && form.get("rvparse").equals("1"), "unexpected request " + form);
+        }
+        check(pages.keySet().equals(new HashSet<>(TITLES)), "pages returned for " + pages.keySet());
+        check(pages.get("xyzzy") == null, "the missing page has some content");
+
+        checkSections(pages.get("chat"), "<h3>Noun</h3>\n<p><b>chat</b> <abbr>m</abbr></p>\n<ol>\n <li>cat</li>\n</ol>", "<p><b>Chat</b></p>");
+        checkSections(pages.get("chat_noir"), "<p><b>chat noir</b></p>\n<ol>\n <li>black cat</li>\n</ol>", "");
+        checkSections(pages.get("été"), "<div>\n <h3>Noun</h3>\n</div>\n<p><b>été</b> <abbr>m</abbr></p>\n<ol>\n <li>summer</li>\n</ol>", "");
+    }
+
+    /**
+     * Clean the page like processApiBatch() does, and compare the French and German sections
+     */
+    private static void checkSections(String html, String french, String german) {
+        Map<String, Elements> sections = WiktionaryDumper.extractSections(Jsoup.parseBodyFragment(html).body(),
+                Arrays.asList("French", "German"));
+        String frenchHtml = WiktionaryDumper.rewriteTags(sections.get("French").toString());
+        String germanHtml = WiktionaryDumper.rewriteTags(sections.get("German").toString());
+        check(frenchHtml.equals(french), "French section:\n" + frenchHtml + "\ninstead of:\n" + french);
+        check(germanHtml.equals(german), "German section:\n" + germanHtml + "\ninstead of:\n" + german);
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        Map<String, String> form = new HashMap<>();
+        for (String field : body.split("&")) {
+            int eq = field.indexOf('=');
+            form.put(URLDecoder.decode(field.substring(0, eq), "UTF-8"), URLDecoder.decode(field.substring(eq + 1), "UTF-8"));
+        }
+        forms.add(form);
+
+        byte[] response = responses.isEmpty() ? new byte[0] : responses.remove();
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("ApiBatchFetcherCheck failed: " + message);
+        }
+    }
+}
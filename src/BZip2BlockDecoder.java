@@ -0,0 +1,341 @@
+import java.io.IOException;
+
+/**
+ * Decoder for a single bzip2 block. Every block in a bzip2 stream is self contained, so once
+ * its position in the compressed data is known it can be decoded independently of the others.
+ */
+public class BZip2BlockDecoder {
+    public static final int MAX_BLOCK_SIZE = 900000;
+
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+    private static final int GROUP_SIZE = 50;
+    private static final int MAX_CODE_LEN = 20;
+    private static final int[] CRC_TABLE = new int[256];
+    static
+    {
+        for (int i = 0; i < 256; i++) {
+            int c = i << 24;
+            for (int j = 0; j < 8; j++) {
+                c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+            }
+            CRC_TABLE[i] = c;
+        }
+    }
+
+    private final byte[] data;
+    private int pos;
+    private int bitBuffer;
+    private int bitsLive;
+
+    // Huffman tables of the current block, one row per coding group
+    private int[][] limit;
+    private int[][] base;
+    private int[][] perm;
+    private int[] minLens;
+    private byte[] selectors;
+    private int groupNo;
+    private int groupPos;
+    private int[] groupLimit;
+    private int[] groupBase;
+    private int[] groupPerm;
+    private int groupMinLen;
+
+    /**
+     * @param data The compressed bytes, starting with the byte that holds the first bit of the block
+     *             header (the bit right after the block magic number)
+     * @param bitOffset Offset of that first bit within data[0], 0 being the most significant bit
+     */
+    public BZip2BlockDecoder(byte[] data, int bitOffset) {
+        this.data = data;
+        this.pos = 1;
+        this.bitBuffer = data[0] & 0xff;
+        this.bitsLive = 8 - bitOffset;
+    }
+
+    public byte[] decode() throws IOException {
+        int storedCrc = readBits(16) << 16 | readBits(16);
+        if (readBits(1) != 0) {
+            throw new IOException("Randomised bzip2 blocks are not supported");
+        }
+        int origPtr = readBits(24);
+
+        // the symbol map, i.e. which byte values are used in this block
+        byte[] seqToUnseq = new byte[256];
+        int nInUse = 0;
+        int inUse16 = readBits(16);
+        for (int i = 0; i < 16; i++) {
+            if ((inUse16 & (0x8000 >>> i)) != 0) {
+                int inUse = readBits(16);
+                for (int j = 0; j < 16; j++) {
+                    if ((inUse & (0x8000 >>> j)) != 0) {
+                        seqToUnseq[nInUse++] = (byte) (i * 16 + j);
+                    }
+                }
+            }
+        }
+        if (nInUse == 0) {
+            throw new IOException("Corrupt bzip2 block: empty symbol map");
+        }
+        int alphaSize = nInUse + 2;
+
+        readSelectors();
+        readHuffmanTables(alphaSize);
+
+        // undo the Huffman, run-length and move-to-front stages
+        int eob = nInUse + 1;
+        int[] counts = new int[256];
+        byte[] mtf = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            mtf[i] = (byte) i;
+        }
+        int[] tt = new int[MAX_BLOCK_SIZE];
+        int nblock = 0;
+        groupNo = -1;
+        groupPos = 0;
+
+        int nextSym = nextSymbol();
+        while (nextSym != eob) {
+            if (nextSym == RUNA || nextSym == RUNB) {
+                int es = -1;
+                int n = 1;
+                do {
+                    if (n >= 2 * 1024 * 1024) {
+                        throw new IOException("Corrupt bzip2 block: run too long");
+                    }
+                    es += (nextSym + 1) * n;
+                    n *= 2;
+                    nextSym = nextSymbol();
+                } while (nextSym == RUNA || nextSym == RUNB);
+                es++;
+
+                int uc = seqToUnseq[mtf[0] & 0xff] & 0xff;
+                if (nblock + es > MAX_BLOCK_SIZE) {
+                    throw new IOException("Corrupt bzip2 block: block too large");
+                }
+                counts[uc] += es;
+                while (es-- > 0) {
+                    tt[nblock++] = uc;
+                }
+            }
+            else {
+                if (nblock >= MAX_BLOCK_SIZE) {
+                    throw new IOException("Corrupt bzip2 block: block too large");
+                }
+                int nn = nextSym - 1;
+                byte v = mtf[nn];
+                System.arraycopy(mtf, 0, mtf, 1, nn);
+                mtf[0] = v;
+                int uc = seqToUnseq[v & 0xff] & 0xff;
+                counts[uc]++;
+                tt[nblock++] = uc;
+                nextSym = nextSymbol();
+            }
+        }
+
+        if (origPtr < 0 || origPtr >= nblock) {
+            throw new IOException("Corrupt bzip2 block: bad origPtr");
+        }
+
+        // inverse Burrows-Wheeler transform
+        int[] cftab = new int[257];
+        for (int i = 1; i <= 256; i++) {
+            cftab[i] = cftab[i - 1] + counts[i - 1];
+        }
+        for (int i = 0; i < nblock; i++) {
+            int uc = tt[i] & 0xff;
+            tt[cftab[uc]] |= i << 8;
+            cftab[uc]++;
+        }
+
+        // undo the initial run-length encoding while walking the BWT chain
+        byte[] out = new byte[nblock + (nblock >> 2) + 16];
+        int outLen = 0;
+        int crc = 0xffffffff;
+        int tPos = tt[origPtr] >>> 8;
+        int prev = -1;
+        int runLen = 0;
+        for (int k = 0; k < nblock; k++) {
+            tPos = tt[tPos];
+            int ch = tPos & 0xff;
+            tPos >>>= 8;
+
+            int repeat;
+            if (runLen == 4) {
+                repeat = ch;
+                ch = prev;
+                runLen = 0;
+            }
+            else {
+                repeat = 1;
+                if (ch == prev) {
+                    runLen++;
+                }
+                else {
+                    prev = ch;
+                    runLen = 1;
+                }
+            }
+
+            if (outLen + repeat > out.length) {
+                byte[] grown = new byte[Math.max(out.length * 2, outLen + repeat)];
+                System.arraycopy(out, 0, grown, 0, outLen);
+                out = grown;
+            }
+            for (int r = 0; r < repeat; r++) {
+                out[outLen++] = (byte) ch;
+                crc = (crc << 8) ^ CRC_TABLE[(crc >>> 24) ^ ch];
+            }
+        }
+
+        if (~crc != storedCrc) {
+            throw new IOException("bzip2 block CRC mismatch");
+        }
+
+        if (outLen == out.length) {
+            return out;
+        }
+        byte[] result = new byte[outLen];
+        System.arraycopy(out, 0, result, 0, outLen);
+        return result;
+    }
+
+    private void readSelectors() throws IOException {
+        int nGroups = readBits(3);
+        if (nGroups < 2 || nGroups > 6) {
+            throw new IOException("Corrupt bzip2 block: bad number of Huffman groups");
+        }
+        int nSelectors = readBits(15);
+        if (nSelectors < 1) {
+            throw new IOException("Corrupt bzip2 block: no selectors");
+        }
+
+        byte[] mtf = new byte[nGroups];
+        for (int i = 0; i < nGroups; i++) {
+            mtf[i] = (byte) i;
+        }
+        selectors = new byte[nSelectors];
+        for (int i = 0; i < nSelectors; i++) {
+            int j = 0;
+            while (readBits(1) == 1) {
+                j++;
+                if (j >= nGroups) {
+                    throw new IOException("Corrupt bzip2 block: bad selector");
+                }
+            }
+            byte v = mtf[j];
+            System.arraycopy(mtf, 0, mtf, 1, j);
+            mtf[0] = v;
+            selectors[i] = v;
+        }
+
+        limit = new int[nGroups][];
+        base = new int[nGroups][];
+        perm = new int[nGroups][];
+        minLens = new int[nGroups];
+    }
+
+    private void readHuffmanTables(int alphaSize) throws IOException {
+        int[] length = new int[alphaSize];
+        for (int t = 0; t < limit.length; t++) {
+            int curr = readBits(5);
+            int minLen = 32;
+            int maxLen = 0;
+            for (int i = 0; i < alphaSize; i++) {
+                while (true) {
+                    if (curr < 1 || curr > MAX_CODE_LEN) {
+                        throw new IOException("Corrupt bzip2 block: bad code length");
+                    }
+                    if (readBits(1) == 0) {
+                        break;
+                    }
+                    curr += readBits(1) == 0 ? 1 : -1;
+                }
+                length[i] = curr;
+                minLen = Math.min(minLen, curr);
+                maxLen = Math.max(maxLen, curr);
+            }
+            createDecodeTables(t, length, alphaSize, minLen, maxLen);
+        }
+    }
+
+    private void createDecodeTables(int t, int[] length, int alphaSize, int minLen, int maxLen) {
+        int[] p = new int[alphaSize];
+        int[] b = new int[MAX_CODE_LEN + 2];
+        int[] l = new int[MAX_CODE_LEN + 2];
+
+        int pp = 0;
+        for (int i = minLen; i <= maxLen; i++) {
+            for (int j = 0; j < alphaSize; j++) {
+                if (length[j] == i) {
+                    p[pp++] = j;
+                }
+            }
+        }
+
+        for (int i = 0; i < alphaSize; i++) {
+            b[length[i] + 1]++;
+        }
+        for (int i = 1; i < b.length; i++) {
+            b[i] += b[i - 1];
+        }
+
+        int vec = 0;
+        for (int i = minLen; i <= maxLen; i++) {
+            vec += b[i + 1] - b[i];
+            l[i] = vec - 1;
+            vec <<= 1;
+        }
+        for (int i = minLen + 1; i <= maxLen; i++) {
+            b[i] = ((l[i - 1] + 1) << 1) - b[i];
+        }
+
+        limit[t] = l;
+        base[t] = b;
+        perm[t] = p;
+        minLens[t] = minLen;
+    }
+
+    private int nextSymbol() throws IOException {
+        if (groupPos == 0) {
+            groupNo++;
+            if (groupNo >= selectors.length) {
+                throw new IOException("Corrupt bzip2 block: ran out of selectors");
+            }
+            groupPos = GROUP_SIZE;
+            int sel = selectors[groupNo];
+            groupLimit = limit[sel];
+            groupBase = base[sel];
+            groupPerm = perm[sel];
+            groupMinLen = minLens[sel];
+        }
+        groupPos--;
+
+        int zn = groupMinLen;
+        int zvec = readBits(zn);
+        while (zvec > groupLimit[zn]) {
+            zn++;
+            if (zn > MAX_CODE_LEN) {
+                throw new IOException("Corrupt bzip2 block: bad Huffman code");
+            }
+            zvec = (zvec << 1) | readBits(1);
+        }
+        int idx = zvec - groupBase[zn];
+        if (idx < 0 || idx >= groupPerm.length) {
+            throw new IOException("Corrupt bzip2 block: bad Huffman code");
+        }
+        return groupPerm[idx];
+    }
+
+    private int readBits(int n) throws IOException {
+        while (bitsLive < n) {
+            if (pos >= data.length) {
+                throw new IOException("Unexpected end of bzip2 block");
+            }
+            bitBuffer = (bitBuffer << 8) | (data[pos++] & 0xff);
+            bitsLive += 8;
+        }
+        bitsLive -= n;
+        return (bitBuffer >>> bitsLive) & ((1 << n) - 1);
+    }
+}
@@ -0,0 +1,608 @@
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the hot paths, run as a program with the same classpath as the others:
+ *   java Benchmarks [benchmark...]      (all of them if none is given)
+ * Each benchmark is run -Dwarmup times (default 3) before being timed over -Diterations (default
+ * 10). The results are written to bench_results/results-<time>.json and appended to
+ * bench_results/history.csv, one row per benchmark and metric, so that runs can be compared over
+ * time (-DbenchOut=<folder> to put them elsewhere). Each result is compared with the last one of the
+ * same benchmark and metric in history.csv, and a change for the worse of more than
+ * -DregressionThreshold percent (default 10) is logged as a regression, which makes the run exit
+ * with an error with -DfailOnRegression=true.
+ *
+ * The fixtures are generated unless given: -DdumpFixture=<xml dump>, -DpageCorpus=<folder of saved
+ * Wiktionary pages, *.html>. The read-side benchmarks need a processed db (-Ddict, default
+ * processed_dict.db) and for the binary one the export too (-DbinaryDict, default processed_dict.bin),
+ * and are skipped without them. The SQLite ones are skipped if the driver isn't on the classpath.
+ *
+ * What the ops compute is folded into a checksum that is printed at the end, so that the JIT can't
+ * drop work whose result would otherwise be unused.
+ */
+public class Benchmarks {
+    private static final int WARMUP = Integer.getInteger("warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("iterations", 10);
+    private static final String OUT_DIR = System.getProperty("benchOut", "bench_results");
+    private static final String DICT = System.getProperty("dict", "processed_dict.db");
+    private static final String BINARY_DICT = System.getProperty("binaryDict", "processed_dict.bin");
+    private static final long LOAD_TEST_MILLIS = Long.getLong("loadTestSeconds", 5) * 1000;
+    private static final double REGRESSION_THRESHOLD = Double.parseDouble(System.getProperty("regressionThreshold", "10"));
+    private static final boolean FAIL_ON_REGRESSION = Boolean.getBoolean("failOnRegression");
+    private static final List<String> LANGUAGES = Arrays.asList("French", "Spanish", "German");
+
+    private static class Result {
+        final String benchmark;
+        final String metric;
+        final double value;
+        final String unit;
+
+        Result(String benchmark, String metric, double value, String unit) {
+            this.benchmark = benchmark;
+            this.metric = metric;
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    private static final List<Result> results = new ArrayList<>();
+    private static boolean sqliteAvailable;
+    private static long checksum;
+    private static int regressions;
+
+    public static void main(String argv[]) throws Exception {
+        Set<String> selected = new HashSet<>(Arrays.asList(argv));
+        try {
+            Class.forName("org.sqlite.JDBC");
+            sqliteAvailable = true;
+        } catch (ClassNotFoundException e) {
+            logLine("No SQLite driver, skipping the benchmarks that need it.");
+        }
+
+        byte[] dump = dumpFixture();
+        List<String> pages = pageCorpus();
+        if (selected.isEmpty() || selected.contains("scan")) {
+            benchScan(dump);
+        }
+        if (selected.isEmpty() || selected.contains("clean")) {
+            benchClean(pages);
+        }
+        if (sqliteAvailable && (selected.isEmpty() || selected.contains("conjugation"))) {
+            benchConjugation(pages);
+        }
+        if (sqliteAvailable && (selected.isEmpty() || selected.contains("insert"))) {
+            benchInsert();
+        }
+        if (sqliteAvailable && (selected.isEmpty() || selected.contains("reader"))) {
+            benchReader();
+        }
+        if (sqliteAvailable && (selected.isEmpty() || selected.contains("binary"))) {
+            benchBinary();
+        }
+        writeResults();
+        logLine("Checksum of the results: " + checksum);
+        if (FAIL_ON_REGRESSION && regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Title scan (the pages that have a French header) and section extraction for 3 languages, over the dump
+     */
+    private static void benchScan(byte[] dump) throws Exception {
+        double megabytes = dump.length / 1e6;
+        int[] found = new int[1];
+        time("scan-titles", megabytes, "MB", () -> {
+            PageScanner scanner = new PageScanner("French", false, page -> found[0] += page.title.length());
+            scanner.feed(dump, 0, dump.length);
+        });
+        time("scan-sections-3-languages", megabytes, "MB", () -> {
+            PageScanner scanner = new PageScanner(LANGUAGES, true, page -> {
+                for (String section : page.sections.values()) {
+                    found[0] += section.length();
+                }
+            });
+            scanner.feed(dump, 0, dump.length);
+        });
+        consume(found[0]);
+    }
+
+    /**
+     * What the dumper does with each fetched page: parse it, clean and extract the French section and
+     * turn it into the raw html
+     */
+    private static void benchClean(List<String> pages) throws Exception {
+        time("clean-pages", pages.size(), "pages", () -> {
+            long length = 0;
+            for (String page : pages) {
+                Element content = Jsoup.parse(page).select("#mw-content-text").first();
+                Map<String, Elements> sections = WiktionaryDumper.extractSections(content, Collections.singletonList("French"));
+                length += WiktionaryDumper.rewriteTags(sections.get("French").toString()).length();
+            }
+            consume(length);
+        });
+    }
+
+    /**
+     * The processor's section filtering (which includes the conjugation tables), the table
+     * extraction alone, and the conjugation sentences with and without the PERSON_SCREEN prefilter
+     */
+    private static void benchConjugation(List<String> pages) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            ConjugationProcessor processor = new ConjugationProcessor(connection);
+
+            List<Elements> sections = new ArrayList<>();
+            for (String page : pages) {
+                Element content = Jsoup.parse(page).select("#mw-content-text").first();
+                sections.add(WiktionaryDumper.extractSections(content, Collections.singletonList("French")).get("French"));
+            }
+            time("filter-sections", sections.size(), "pages", () -> {
+                ConjugationProcessor.Partial partial = processor.newPartial();
+                long length = 0;
+                for (int i = 0; i < sections.size(); i++) {
+                    length += WiktionaryProcessor.processSection("word" + i, sections.get(i), partial).length();
+                }
+                consume(length + partial.size());
+            });
+
+            Element table = Jsoup.parseBodyFragment(conjugationTable("parler")).body().getElementsByTag("table").first();
+            int tables = 1000;
+            time("conjugation-table", tables, "tables", () -> {
+                ConjugationProcessor.Partial partial = processor.newPartial();
+                for (int i = 0; i < tables; i++) {
+                    partial.processConjugationFromTable("verb" + i, table);
+                }
+                consume(partial.size());
+            });
+
+            List<String> sentences = definitionSentences(20000);
+            time("conjugation-sentences", sentences.size(), "sentences", () -> {
+                ConjugationProcessor.Partial partial = processor.newPartial();
+                int found = 0;
+                for (String sentence : sentences) {
+                    found += partial.processConjugation("word", sentence) ? 1 : 0;
+                }
+                consume(found + partial.size());
+            });
+            int[] matches = new int[1];
+            time("conjugation-sentences-regex-only", sentences.size(), "sentences", () -> {
+                for (String sentence : sentences) {
+                    if (processor.tenseMoodMatcher.matcher(sentence).find()) {
+                        matches[0]++;
+                    }
+                }
+            });
+            consume(matches[0]);
+        }
+    }
+
+    /**
+     * Write throughput of the raw db writer, to a file as in a real run
+     */
+    private static void benchInsert() throws Exception {
+        int rows = 50000;
+        String definition = String.join("", Collections.nCopies(20, "<li>(transitive) to speak</li>"));
+        time("sqlite-insert", rows, "rows", () -> {
+            File file = File.createTempFile("bench_raw", ".db");
+            try {
+                RawDbWriter writer = new RawDbWriter(file.getPath(), null);
+                for (int i = 0; i < rows; i++) {
+                    writer.add("word" + i, definition, i, "2017-01-20T00:00:00Z");
+                }
+                writer.close();
+            } finally {
+                for (String suffix : new String[] {"", "-wal", "-shm"}) {
+                    Files.deleteIfExists(Paths.get(file.getPath() + suffix));
+                }
+            }
+        });
+    }
+
+    /**
+     * Load test of DictionaryReader: lookups per second and latency percentiles from all cores,
+     * on words that are all in the cache and on a cache that never hits
+     */
+    private static void benchReader() throws Exception {
+        if (!Files.exists(Paths.get(DICT))) {
+            logLine("No " + DICT + ", skipping the reader benchmark.");
+            return;
+        }
+        List<String> words = sampleWords(20000);
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try (DictionaryReader reader = new DictionaryReader(DICT, threads, words.size())) {
+            List<String> hot = words.subList(0, Math.min(1000, words.size()));
+            for (String word : hot) {
+                consume(length(reader.lookup(word)));
+            }
+            loadTest("reader-cached", threads, hot, reader);
+        }
+        try (DictionaryReader reader = new DictionaryReader(DICT, threads, 0)) {
+            loadTest("reader-uncached", threads, words, reader);
+        }
+    }
+
+    private static void loadTest(String benchmark, int threads, List<String> words, DictionaryReader reader) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOAD_TEST_MILLIS);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                long[] latencies = new long[1 << 16];
+                int count = 0;
+                long length = 0;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    String word = words.get(random.nextInt(words.size()));
+                    long start = System.nanoTime();
+                    length += length(reader.lookup(word));
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                consume(length);
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+        List<Long> all = new ArrayList<>();
+        for (Future<long[]> future : futures) {
+            for (long latency : future.get()) {
+                all.add(latency);
+            }
+        }
+        pool.shutdown();
+
+        record(benchmark, "throughput", all.size() / (LOAD_TEST_MILLIS / 1000.0), "lookups/s");
+        recordPercentiles(benchmark, all);
+    }
+
+    /**
+     * Cold open (open and first lookup) and lookup latency, of the binary export against the SQLite file
+     */
+    private static void benchBinary() throws Exception {
+        if (!Files.exists(Paths.get(DICT)) || !Files.exists(Paths.get(BINARY_DICT))) {
+            logLine("No " + DICT + " or " + BINARY_DICT + ", skipping the binary benchmark.");
+            return;
+        }
+        List<String> words = sampleWords(10000);
+        String first = words.get(0);
+
+        time("open-binary", 1, "opens", () -> {
+            try (BinaryDictionary dictionary = BinaryDictionary.open(BINARY_DICT)) {
+                consume(length(dictionary.lookup(first)));
+            }
+        });
+        time("open-sqlite", 1, "opens", () -> {
+            try (DictionaryReader reader = new DictionaryReader(DICT, 1, 0)) {
+                consume(length(reader.lookup(first)));
+            }
+        });
+
+        try (BinaryDictionary dictionary = BinaryDictionary.open(BINARY_DICT);
+             DictionaryReader reader = new DictionaryReader(DICT, 1, 0)) {
+            long length = 0;
+            for (int pass = 0; pass < WARMUP; pass++) {
+                for (String word : words) {
+                    length += length(dictionary.lookup(word));
+                    length += length(reader.lookup(word));
+                }
+            }
+            List<Long> binary = new ArrayList<>();
+            List<Long> sqlite = new ArrayList<>();
+            for (String word : words) {
+                long start = System.nanoTime();
+                length += length(dictionary.lookup(word));
+                binary.add(System.nanoTime() - start);
+                start = System.nanoTime();
+                length += length(reader.lookup(word));
+                sqlite.add(System.nanoTime() - start);
+            }
+            consume(length);
+            recordPercentiles("lookup-binary", binary);
+            recordPercentiles("lookup-sqlite", sqlite);
+        }
+    }
+
+    /**
+     * Run the op WARMUP times, then time it ITERATIONS times
+     * @param work How much one run of the op does, in units
+     */
+    private static void time(String benchmark, double work, String unit, Op op) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            op.run();
+        }
+        long[] nanos = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            op.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+
+        double mean = 0;
+        for (long n : nanos) {
+            mean += n / (double) ITERATIONS;
+        }
+        record(benchmark, "mean", mean / 1e6, "ms/op");
+        record(benchmark, "best", nanos[0] / 1e6, "ms/op");
+        record(benchmark, "throughput", work / (mean / 1e9), unit + "/s");
+    }
+
+    /**
+     * Fold a result into the checksum printed at the end. Thread-safe, call it once per op rather
+     * than in the timed loops.
+     */
+    private static synchronized void consume(long value) {
+        checksum = checksum * 31 + value;
+    }
+
+    private static int length(String definition) {
+        return definition == null ? -1 : definition.length();
+    }
+
+    private static int length(DictionaryReader.Entry entry) {
+        return entry == null ? -1 : length(entry.definition);
+    }
+
+    private static void recordPercentiles(String benchmark, List<Long> latencies) {
+        Collections.sort(latencies);
+        for (double percentile : new double[] {50, 99}) {
+            int index = (int) Math.min(latencies.size() - 1, Math.ceil(percentile / 100 * latencies.size()) - 1);
+            record(benchmark, "p" + (int) percentile, latencies.get(Math.max(0, index)) / 1e3, "us");
+        }
+    }
+
+    private static void record(String benchmark, String metric, double value, String unit) {
+        results.add(new Result(benchmark, metric, value, unit));
+        logLine(String.format("%-36s %-10s %14.3f %s", benchmark, metric, value, unit));
+    }
+
+    private static void writeResults() throws IOException {
+        String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+        Path dir = Paths.get(OUT_DIR);
+        Files.createDirectories(dir);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"timestamp\": \"").append(timestamp).append("\",\n  \"java\": \"")
+                .append(System.getProperty("java.version")).append("\",\n  \"warmup\": ").append(WARMUP)
+                .append(",\n  \"iterations\": ").append(ITERATIONS).append(",\n  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(i > 0 ? "," : "").append("\n    {\"benchmark\": \"").append(result.benchmark)
+                    .append("\", \"metric\": \"").append(result.metric).append("\", \"value\": ")
+                    .append(String.format(Locale.ROOT, "%.6f", result.value)).append(", \"unit\": \"").append(result.unit).append("\"}");
+        }
+        json.append("\n  ]\n}\n");
+        Path jsonFile = dir.resolve("results-" + timestamp.replace(":", "") + ".json");
+        Files.write(jsonFile, json.toString().getBytes(StandardCharsets.UTF_8));
+
+        Path csv = dir.resolve("history.csv");
+        boolean exists = Files.exists(csv);
+        if (exists) {
+            compareWithHistory(csv);
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(csv, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (!exists) {
+                out.write("timestamp,benchmark,metric,value,unit");
+                out.newLine();
+            }
+            for (Result result : results) {
+                out.write(timestamp + "," + result.benchmark + "," + result.metric + ","
+                        + String.format(Locale.ROOT, "%.6f", result.value) + "," + result.unit);
+                out.newLine();
+            }
+        }
+        logLine("Results written to " + jsonFile + " and " + csv + ".");
+    }
+
+    /**
+     * Log how each result changed since the last run that measured it, from history.csv, and the
+     * regressions: a change for the worse of more than REGRESSION_THRESHOLD percent
+     */
+    private static void compareWithHistory(Path csv) throws IOException {
+        // last value of each benchmark and metric, the rows being in run order
+        Map<String, String[]> previous = new HashMap<>();
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String[] fields = line.split(",");
+            if (fields.length == 5) {
+                previous.put(fields[1] + "," + fields[2], fields);
+            }
+        }
+
+        regressions = 0;
+        for (Result result : results) {
+            String[] row = previous.get(result.benchmark + "," + result.metric);
+            if (row == null || !row[4].equals(result.unit)) {
+                continue;
+            }
+            double before = Double.parseDouble(row[3]);
+            if (before == 0) {
+                continue;
+            }
+            double change = (result.value - before) / before * 100;
+            // rates are better higher, times and latencies lower
+            boolean worse = result.unit.endsWith("/s") ? change < 0 : change > 0;
+            boolean regression = worse && Math.abs(change) > REGRESSION_THRESHOLD;
+            if (regression) {
+                regressions++;
+            }
+            logLine(String.format(Locale.ROOT, "%-36s %-10s %+8.1f%% since %s%s", result.benchmark, result.metric,
+                    change, row[0], regression ? "  REGRESSION" : ""));
+        }
+        logLine(regressions + " regression(s) of more than " + REGRESSION_THRESHOLD + "% since the previous runs.");
+    }
+
+    private static List<String> sampleWords(int count) throws Exception {
+        List<String> words = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + DICT);
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM Word ORDER BY random() LIMIT " + count)) {
+            while (rs.next()) {
+                words.add(rs.getString(1));
+            }
+        }
+        if (words.isEmpty()) {
+            throw new IllegalStateException(DICT + " has no words");
+        }
+        return words;
+    }
+
+    /**
+     * @return The xml dump given with -DdumpFixture, or a generated one of about 20 MB
+     */
+    private static byte[] dumpFixture() throws IOException {
+        String path = System.getProperty("dumpFixture");
+        if (path != null) {
+            return Files.readAllBytes(Paths.get(path));
+        }
+
+        Random random = new Random(42);
+        String[] languages = {"English", "French", "Spanish", "German", "Italian"};
+        StringBuilder sb = new StringBuilder("<mediawiki>\n");
+        for (int page = 0; page < 10000; page++) {
+            sb.append("  <page>\n    <title>word").append(page).append("</title>\n    <ns>0</ns>\n    <id>").append(page)
+                    .append("</id>\n    <revision>\n      <id>").append(1000000 + page).append("</id>\n      <timestamp>2017-01-20T00:00:00Z</timestamp>\n")
+                    .append("      <contributor><username>someone</username><id>42</id></contributor>\n")
+                    .append("      <text xml:space=\"preserve\">");
+            for (String language : languages) {
+                if (random.nextInt(3) == 0) {
+                    sb.append("==").append(language).append("==\n===Etymology===\nFrom {{etyl|la|").append(language)
+                            .append("}} &lt;i&gt;verbum&lt;/i&gt;.\n\n===Noun===\n{{head|xx|noun}}\n\n");
+                    for (int i = 0; i < 1 + random.nextInt(8); i++) {
+                        sb.append("# a meaning of the word, number ").append(i).append(" [[link]] &amp; more\n");
+                    }
+                    sb.append("\n----\n\n");
+                }
+            }
+            sb.append("</text>\n    </revision>\n  </page>\n");
+        }
+        return sb.append("</mediawiki>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The pages of the folder given with -DpageCorpus, or 200 generated pages laid out like
+     * the printable Wiktionary pages
+     */
+    private static List<String> pageCorpus() throws IOException {
+        List<String> pages = new ArrayList<>();
+        String dir = System.getProperty("pageCorpus");
+        if (dir != null) {
+            File[] files = new File(dir).listFiles((d, name) -> name.endsWith(".html"));
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    pages.add(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                }
+            }
+            if (pages.isEmpty()) {
+                throw new IOException("No .html page in " + dir);
+            }
+            return pages;
+        }
+
+        for (int page = 0; page < 200; page++) {
+            StringBuilder sb = new StringBuilder("<html><head><script>var x = 1;</script></head><body>"
+                    + "<div id=\"mw-content-text\"><div class=\"mw-parser-output\">"
+                    + "<div id=\"toc\" class=\"toc\"><ul><li><a href=\"#English\">English</a></li></ul></div>"
+                    + "<h2><span class=\"mw-headline\" id=\"English\">English</span></h2><p>An English word.</p>"
+                    + "<h2><span class=\"mw-headline\" id=\"French\">French</span></h2>"
+                    + "<h3><span class=\"mw-headline\">Etymology</span></h3><p>From <i class=\"Latn\">verbum</i>.</p>"
+                    + "<h3><span class=\"mw-headline\">Pronunciation</span></h3><ul><li>IPA: <span class=\"IPA\">/paʁ.le/</span></li></ul>"
+                    + "<h3><span class=\"mw-headline\">Verb</span></h3><p><strong class=\"Latn headword\">word" + page + "</strong></p><ol>");
+            for (int i = 0; i < 5; i++) {
+                sb.append("<li><span class=\"ib-content\">(transitive)</span> <a href=\"/wiki/speak\">to speak</a>, meaning ").append(i)
+                        .append("<dl><dd><div style=\"display: block;\"><span class=\"citation-whole\">1900, Someone</span></div></dd></dl></li>");
+            }
+            sb.append("</ol><h4><span class=\"mw-headline\">Conjugation</span></h4><div class=\"NavFrame\">")
+                    .append(conjugationTable("word" + page)).append("</div>")
+                    .append("<h4><span class=\"mw-headline\">Anagrams</span></h4><ul><li><a href=\"#\">drow</a></li></ul>")
+                    .append("<!-- a comment --><p></p>")
+                    .append("<h2><span class=\"mw-headline\" id=\"Spanish\">Spanish</span></h2><p>Una palabra.</p>")
+                    .append("</div></div><noscript>no script</noscript></body></html>");
+            pages.add(sb.toString());
+        }
+        return pages;
+    }
+
+    /**
+     * @return A conjugation table with the rows where processConjugationFromTable() expects them
+     */
+    private static String conjugationTable(String verb) {
+        StringBuilder sb = new StringBuilder("<table><tbody>");
+        for (int row = 0; row < 26; row++) {
+            sb.append("<tr><th>row ").append(row).append("</th>");
+            for (int person = 0; person < 6; person++) {
+                sb.append("<td>").append(verb).append(row).append('-').append(person).append("<sup>1</sup></td>");
+            }
+            sb.append("</tr>");
+        }
+        return sb.append("</tbody></table>").toString();
+    }
+
+    /**
+     * @return Lines like the ones of the definitions, one in 20 being a conjugated form
+     */
+    private static List<String> definitionSentences(int count) {
+        Random random = new Random(7);
+        String[] persons = {"first", "second", "third"};
+        String[] numbers = {"singular", "plural"};
+        String[] tenses = {"present indicative", "imperfect indicative", "past historic", "simple future", "conditional"};
+        List<String> sentences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(20) == 0) {
+                sentences.add(persons[random.nextInt(3)] + "-person " + numbers[random.nextInt(2)] + " "
+                        + tenses[random.nextInt(tenses.length)] + " of parler");
+            }
+            else {
+                sentences.add("(transitive, intransitive) to speak, to talk; to say something about " + i
+                        + " in the second language, first of all");
+            }
+        }
+        return sentences;
+    }
+
+    private static void logLine(String txt) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + ": " + txt);
+    }
+}
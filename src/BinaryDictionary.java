@@ -0,0 +1,482 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable binary export of the processed db, meant to be memory-mapped and used as is: opening it
+ * only reads the header, and a lookup is a binary search directly on the mapped bytes. Numbers are
+ * big-endian ints, and offsets are from the start of the file unless said otherwise.
+ *
+ * header (64 bytes):  MAGIC, VERSION, word count, block size, then the offsets of the regions below
+ * definitions:        the UTF-8 definitions of the words one after the other, in name order
+ * definition offsets: word count + 1 ints, definition i is between offsets i and i + 1, relative
+ *                     to the definitions region
+ * keys:               the names in UTF-8 byte order, front-coded in blocks of BLOCK_SIZE names. The
+ *                     first name of a block is its varint length and its bytes, the others the
+ *                     varint length of the prefix shared with the previous name, the varint length
+ *                     of the rest and the rest
+ * block index:        one int per block, the offset of the block relative to the keys region
+ * conjugation index:  one int per word, its record in the conjugations region, or -1
+ * conjugations:       fixed records of TENSE_COUNT * PERSON_COUNT ints, the offset of each form
+ *                     relative to the forms region, or -1 if there's no such form
+ * forms:              unsigned short length and UTF-8 bytes, the alternatives separated with "/"
+ *
+ * A reader is thread-safe.
+ */
+public class BinaryDictionary implements Closeable {
+    static final int MAGIC = 0x57444943;        // "WDIC"
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 16;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = ConjugationProcessor.TENSE_COUNT * ConjugationProcessor.PERSON_COUNT;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int wordCount;
+    private final int blockSize;
+    private final int definitions;
+    private final int definitionOffsets;
+    private final int keys;
+    private final int blockIndex;
+    private final int conjugationIndex;
+    private final int conjugations;
+    private final int forms;
+
+    /**
+     * Decodes the names one after the other, from the start of a block
+     */
+    private class KeyCursor {
+        byte[] key = new byte[64];
+        int length;
+        int index;      // of the name in key
+        private int pos;
+
+        KeyCursor(int block) {
+            index = block * blockSize - 1;
+            pos = keys + buffer.getInt(blockIndex + 4 * block);
+        }
+
+        /**
+         * Move to the next name. The blocks follow each other, so this goes on past the end of a block.
+         */
+        void next() {
+            index++;
+            int shared = index % blockSize == 0 ? 0 : readVarint();
+            int rest = readVarint();
+            if (shared + rest > key.length) {
+                byte[] bigger = new byte[Math.max(key.length * 2, shared + rest)];
+                System.arraycopy(key, 0, bigger, 0, shared);
+                key = bigger;
+            }
+            for (int i = 0; i < rest; i++) {
+                key[shared + i] = buffer.get(pos + i);
+            }
+            length = shared + rest;
+            pos += rest;
+        }
+
+        String name() {
+            return new String(key, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(pos++);
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    private BinaryDictionary(FileChannel channel, ByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a binary dictionary of version " + VERSION);
+        }
+        wordCount = buffer.getInt(8);
+        blockSize = buffer.getInt(12);
+        definitions = buffer.getInt(16);
+        definitionOffsets = buffer.getInt(20);
+        keys = buffer.getInt(24);
+        blockIndex = buffer.getInt(28);
+        conjugationIndex = buffer.getInt(32);
+        conjugations = buffer.getInt(36);
+        forms = buffer.getInt(40);
+    }
+
+    /**
+     * Map the file. Nothing but the header is read.
+     */
+    public static BinaryDictionary open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too big to be mapped at once");
+            }
+            return new BinaryDictionary(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return wordCount;
+    }
+
+    /**
+     * @return The index of the word with exactly that name, -1 if there's none
+     */
+    public int find(String name) {
+        return search(name.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    /**
+     * @return The definition of the word with exactly that name, or null
+     */
+    public String lookup(String name) {
+        int index = find(name);
+        return index < 0 ? null : definition(index);
+    }
+
+    public String definition(int index) {
+        int start = buffer.getInt(definitionOffsets + 4 * index);
+        int end = buffer.getInt(definitionOffsets + 4 * (index + 1));
+        return string(definitions + start, end - start);
+    }
+
+    public String name(int index) {
+        KeyCursor cursor = new KeyCursor(index / blockSize);
+        while (cursor.index < index) {
+            cursor.next();
+        }
+        return cursor.name();
+    }
+
+    /**
+     * @return The names of the words that start with the prefix (case and accents matter), in UTF-8 byte order
+     */
+    public List<String> prefix(String prefix, int limit) {
+        byte[] target = prefix.getBytes(StandardCharsets.UTF_8);
+        List<String> names = new ArrayList<>();
+        int first = search(target, false);
+        if (first >= wordCount) {
+            return names;
+        }
+
+        KeyCursor cursor = new KeyCursor(first / blockSize);
+        while (cursor.index < first) {
+            cursor.next();
+        }
+        while (names.size() < limit && startsWith(cursor.key, cursor.length, target)) {
+            names.add(cursor.name());
+            if (cursor.index == wordCount - 1) {
+                break;
+            }
+            cursor.next();
+        }
+        return names;
+    }
+
+    /**
+     * @return The conjugation of the verb, or null if it has none
+     */
+    public DictionaryReader.Conjugation conjugation(String verb) {
+        int index = find(verb);
+        int record = index < 0 ? -1 : buffer.getInt(conjugationIndex + 4 * index);
+        if (record < 0) {
+            return null;
+        }
+
+        String[][][] result = new String[ConjugationProcessor.TENSE_COUNT][ConjugationProcessor.PERSON_COUNT][];
+        int pos = conjugations + 4 * RECORD_SIZE * record;
+        for (int tense = 0; tense < ConjugationProcessor.TENSE_COUNT; tense++) {
+            for (int person = 0; person < ConjugationProcessor.PERSON_COUNT; person++, pos += 4) {
+                int form = buffer.getInt(pos);
+                result[tense][person] = form < 0 ? new String[0]
+                        : string(forms + form + 2, buffer.getShort(forms + form) & 0xffff).split("/");
+            }
+        }
+        return new DictionaryReader.Conjugation(verb, result);
+    }
+
+    /**
+     * @param exact Whether only the word with exactly that name is wanted
+     * @return The index of the first word whose name isn't smaller than the target, or if exact, of the
+     * word whose name is the target and -1 if there's none
+     */
+    private int search(byte[] target, boolean exact) {
+        if (wordCount == 0) {
+            return exact ? -1 : 0;
+        }
+
+        // the last block whose first name is <= target, the first names being stored in full
+        int lo = 0, hi = (wordCount - 1) / blockSize;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (compareFirst(mid, target) <= 0) {
+                lo = mid;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+
+        KeyCursor cursor = new KeyCursor(lo);
+        int end = Math.min(wordCount, (lo + 1) * blockSize);
+        while (cursor.index < end - 1) {
+            cursor.next();
+            int c = compare(cursor.key, cursor.length, target);
+            if (c >= 0) {
+                return exact && c != 0 ? -1 : cursor.index;
+            }
+        }
+        return exact ? -1 : end;
+    }
+
+    /**
+     * Compare the first name of the block with the target, in place
+     */
+    private int compareFirst(int block, byte[] target) {
+        int pos = keys + buffer.getInt(blockIndex + 4 * block);
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(pos++);
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        for (int i = 0; i < length && i < target.length; i++) {
+            int c = (buffer.get(pos + i) & 0xff) - (target[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - target.length;
+    }
+
+    private String string(int pos, int length) {
+        // a duplicate has its own position, so that the readers don't get in each other's way
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(pos);
+        byte[] bytes = new byte[length];
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int compare(byte[] a, int aLength, byte[] b) {
+        for (int i = 0; i < aLength && i < b.length; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return aLength - b.length;
+    }
+
+    private static boolean startsWith(byte[] a, int aLength, byte[] prefix) {
+        if (aLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (a[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Write the words and conjugations of the processed db to a binary dictionary file
+     */
+    public static void export(Connection connection, String path) throws SQLException, IOException {
+        long start = System.nanoTime();
+        DefinitionCodec codec = DefinitionCodec.load(connection, "main");
+        Map<String, String[]> conjugationRows = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name, " + String.join(", ", ConjugationProcessor.TENSE_COLUMNS) + " FROM Conjugation")) {
+            while (rs.next()) {
+                String[] tenses = new String[ConjugationProcessor.TENSE_COUNT];
+                for (int tense = 0; tense < tenses.length; tense++) {
+                    tenses[tense] = rs.getString(tense + 2);
+                }
+                conjugationRows.put(rs.getString(1), tenses);
+            }
+        }
+
+        List<byte[]> names = new ArrayList<>();
+        List<Integer> definitionEnds = new ArrayList<>();
+        int duplicates = 0;
+        int definitionsOffset, definitionOffsetsOffset, keysOffset, blockIndexOffset, conjugationIndexOffset,
+                conjugationsOffset, formsOffset;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            out.write(new byte[HEADER_SIZE]);
+
+            // BINARY collation compares the UTF-8 bytes, the same order as the reader. A name is a
+            // key of the file, so of the rows with the same name only the first inserted one is kept
+            definitionsOffset = out.size();
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT name, definition FROM Word ORDER BY name, rowid")) {
+                byte[] previous = null;
+                while (rs.next()) {
+                    byte[] name = rs.getString(1).getBytes(StandardCharsets.UTF_8);
+                    if (previous != null && compare(name, name.length, previous) == 0) {
+                        duplicates++;
+                        logLine("Duplicate name " + rs.getString(1) + " skipped, only its first definition is exported.");
+                        continue;
+                    }
+                    String definition;
+                    if (codec != null) {
+                        byte[] compressed = rs.getBytes(2);
+                        definition = compressed == null ? "" : codec.decompress(compressed);
+                    }
+                    else {
+                        definition = rs.getString(2) == null ? "" : rs.getString(2);
+                    }
+                    out.write(definition.getBytes(StandardCharsets.UTF_8));
+                    checkSize(out);
+                    names.add(name);
+                    definitionEnds.add(out.size() - definitionsOffset);
+                    previous = name;
+                }
+            }
+
+            definitionOffsetsOffset = out.size();
+            out.writeInt(0);
+            for (int end : definitionEnds) {
+                out.writeInt(end);
+            }
+
+            keysOffset = out.size();
+            List<Integer> blocks = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                byte[] name = names.get(i);
+                if (i % BLOCK_SIZE == 0) {
+                    blocks.add(out.size() - keysOffset);
+                    writeVarint(out, name.length);
+                    out.write(name);
+                }
+                else {
+                    byte[] previous = names.get(i - 1);
+                    int shared = 0;
+                    while (shared < name.length && shared < previous.length && name[shared] == previous[shared]) {
+                        shared++;
+                    }
+                    writeVarint(out, shared);
+                    writeVarint(out, name.length - shared);
+                    out.write(name, shared, name.length - shared);
+                }
+            }
+            blockIndexOffset = out.size();
+            for (int block : blocks) {
+                out.writeInt(block);
+            }
+
+            // the forms are shared by all the verbs that have them, e.g. the auxiliaries
+            ByteArrayOutputStream formBytes = new ByteArrayOutputStream();
+            Map<String, Integer> formOffsets = new HashMap<>();
+            List<int[]> records = new ArrayList<>();
+            conjugationIndexOffset = out.size();
+            for (byte[] name : names) {
+                String[] tenses = conjugationRows.get(new String(name, StandardCharsets.UTF_8));
+                if (tenses == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                out.writeInt(records.size());
+                int[] record = new int[RECORD_SIZE];
+                for (int tense = 0; tense < ConjugationProcessor.TENSE_COUNT; tense++) {
+                    String[] persons = tenses[tense].split("\\|", -1);
+                    for (int person = 0; person < ConjugationProcessor.PERSON_COUNT; person++) {
+                        String form = person < persons.length ? persons[person] : "null";
+                        record[tense * ConjugationProcessor.PERSON_COUNT + person] = form.equals("null") || form.isEmpty() ? -1
+                                : formOffsets.computeIfAbsent(form, f -> writeForm(formBytes, f));
+                    }
+                }
+                records.add(record);
+            }
+            conjugationsOffset = out.size();
+            for (int[] record : records) {
+                for (int form : record) {
+                    out.writeInt(form);
+                }
+            }
+            formsOffset = out.size();
+            formBytes.writeTo(out);
+            checkSize(out);
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            int[] header = {MAGIC, VERSION, names.size(), BLOCK_SIZE, definitionsOffset, definitionOffsetsOffset, keysOffset,
+                    blockIndexOffset, conjugationIndexOffset, conjugationsOffset, formsOffset};
+            for (int value : header) {
+                file.writeInt(value);
+            }
+        }
+        logLine("Exported " + names.size() + " words (" + duplicates + " duplicate names skipped) to " + path + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms.");
+    }
+
+    private static int writeForm(ByteArrayOutputStream formBytes, String form) {
+        byte[] bytes = form.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("Conjugation form too long: " + form);
+        }
+        int offset = formBytes.size();
+        formBytes.write(bytes.length >>> 8);
+        formBytes.write(bytes.length);
+        formBytes.write(bytes, 0, bytes.length);
+        return offset;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void checkSize(DataOutputStream out) throws IOException {
+        // DataOutputStream.size() stops counting there, and a single mapping can't be bigger anyway
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("The binary dictionary can't be bigger than 2 GB");
+        }
+    }
+
+    private static void logLine(String txt) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + ": " + txt);
+    }
+}
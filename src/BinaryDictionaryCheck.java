@@ -0,0 +1,227 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Check that BinaryDictionary gives the same answers as SQLite on the processed db it was exported
+ * from, run as a program:
+ *   java BinaryDictionaryCheck
+ * The dbs have 0, 1, BLOCK_SIZE and BLOCK_SIZE + 1 words, and a thousand words with duplicate
+ * names, an empty name, a name longer than 127 bytes, names whose UTF-16 order isn't their UTF-8
+ * byte order, and long prefixes shared across blocks, plain and with compressed definitions:
+ * - the names, in the order of SQLite's BINARY collation, with the first inserted of each duplicate
+ * - lookup() of each name, of names just before or after it, and before the first and after the last
+ * - prefix() of the first characters of each name, with limits from 1 to more than a block
+ * - conjugation() against DictionaryReader
+ * Exits with an error if any of these doesn't hold.
+ */
+public class BinaryDictionaryCheck {
+    private static final int WORDS = 1000;
+
+    public static void main(String argv[]) throws Exception {
+        Path dir = Files.createTempDirectory("binary_dictionary_check");
+        try {
+            List<String[]> words = words();
+            int[] sizes = {0, 1, BinaryDictionary.BLOCK_SIZE, BinaryDictionary.BLOCK_SIZE + 1, words.size()};
+            for (int size : sizes) {
+                for (boolean compress : new boolean[] {false, true}) {
+                    checkExport(dir, words.subList(0, size), compress);
+                }
+            }
+            System.out.println("BinaryDictionaryCheck: OK, " + words.size() + " words");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * @return Name and definition of the words, in insertion order, the special ones first so that
+     * they're in the small dbs too
+     */
+    private static List<String[]> words() {
+        List<String[]> words = new ArrayList<>();
+        String longName = String.join("", Collections.nCopies(40, "abc"));
+        String[] names = {
+                "été", "", "chat", "chat", "Chat", "ete", "Été", "été", "œuvre", "oeuvre", "a", "A", "ź",
+                // U+FF01 sorts after U+1F600 in UTF-16 (its high surrogate is U+D83D) but before it in UTF-8
+                "！", "😀", "😀😀", "中文", "中",
+                longName, longName + "d", longName + "é", longName + "😀"};
+        for (int i = 0; i < names.length; i++) {
+            // an empty definition, and a NULL one which the export writes as empty
+            words.add(new String[] {names[i], i == 1 ? "" : i == 4 ? null : "<p>" + names[i] + " " + i + "</p>"});
+        }
+        for (int i = words.size(); i < WORDS; i++) {
+            // runs of names sharing a long prefix, across the block boundaries
+            String name = i % 3 == 0 ? "préfixe-commun-" + i / 40 + "-" + i : "mot" + i;
+            words.add(new String[] {name, "<ol>\n <li>definition " + i + " — é</li>\n</ol>"});
+        }
+        return words;
+    }
+
+    private static void checkExport(Path dir, List<String[]> words, boolean compress) throws Exception {
+        String name = words.size() + (compress ? "_compressed" : "");
+        Path db = dir.resolve(name + ".db");
+        Path bin = dir.resolve(name + ".bin");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate(WiktionaryProcessor.CREATE_WORD_TABLE);
+                stmt.executeUpdate("CREATE INDEX name_idx ON Word (name collate nocase)");
+            }
+            new ConjugationProcessor(connection);
+            try (PreparedStatement word = connection.prepareStatement("INSERT INTO Word (name, definition) VALUES (?,?)");
+                 PreparedStatement conjugation = connection.prepareStatement("INSERT INTO Conjugation VALUES (?,?,?,?,?,?,?,?,?)")) {
+                for (int i = 0; i < words.size(); i++) {
+                    word.setString(1, words.get(i)[0]);
+                    word.setString(2, words.get(i)[1]);
+                    word.executeUpdate();
+                    if (i % 7 == 2) {
+                        insertConjugation(conjugation, words.get(i)[0], i);
+                    }
+                }
+            }
+            if (compress && !words.isEmpty()) {
+                DefinitionCodec.compressDefinitions(connection);
+            }
+            BinaryDictionary.export(connection, bin.toString());
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("backup to " + db);
+            }
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + db);
+             BinaryDictionary dictionary = BinaryDictionary.open(bin.toString());
+             DictionaryReader reader = new DictionaryReader(db.toString(), 1, 0)) {
+            Map<String, String> expected = expected(connection);
+            List<String> names = new ArrayList<>(expected.keySet());
+            List<byte[]> nameBytes = new ArrayList<>();
+            for (String word : names) {
+                nameBytes.add(word.getBytes(StandardCharsets.UTF_8));
+            }
+            check(dictionary.size() == names.size(), name + ": " + dictionary.size() + " words instead of " + names.size());
+
+            for (int i = 0; i < names.size(); i++) {
+                String word = names.get(i);
+                check(dictionary.name(i).equals(word), name + ": name " + i + " is " + dictionary.name(i) + " instead of " + word);
+                check(dictionary.find(word) == i, name + ": find(\"" + word + "\") is " + dictionary.find(word) + " instead of " + i);
+                check(expected.get(word).equals(dictionary.lookup(word)), name + ": lookup(\"" + word + "\") gave "
+                        + dictionary.lookup(word) + " instead of " + expected.get(word));
+                for (String missing : new String[] {word + "\u0000", word + "~", word.isEmpty() ? "\u0000" : word.substring(0, word.length() - 1) + "\u0000"}) {
+                    if (!expected.containsKey(missing)) {
+                        check(dictionary.lookup(missing) == null && dictionary.find(missing) == -1,
+                                name + ": lookup(\"" + missing + "\") found " + dictionary.lookup(missing));
+                    }
+                }
+                checkConjugation(name, dictionary, reader, word);
+
+                for (int length = 1; length <= Math.min(word.length(), 20); length += length < 4 ? 1 : 8) {
+                    if (Character.isHighSurrogate(word.charAt(length - 1))) {
+                        continue;
+                    }
+                    String prefix = word.substring(0, length);
+                    for (int limit : new int[] {1, 2, BinaryDictionary.BLOCK_SIZE - 1, BinaryDictionary.BLOCK_SIZE + 3, 100}) {
+                        checkPrefix(name, dictionary, names, nameBytes, prefix, limit);
+                    }
+                }
+            }
+            for (String missing : new String[] {"\u0000", "\uffff", "zzz", "😁"}) {
+                check(dictionary.lookup(missing) == null, name + ": lookup(\"" + missing + "\") found " + dictionary.lookup(missing));
+                checkPrefix(name, dictionary, names, nameBytes, missing, 10);
+            }
+            checkPrefix(name, dictionary, names, nameBytes, "", names.size() + 1);
+            check(dictionary.conjugation("missing") == null, name + ": a conjugation for a missing word");
+        }
+    }
+
+    /**
+     * @param verb The forms are made from its number, some missing, some with an alternative
+     */
+    private static void insertConjugation(PreparedStatement ps, String name, int verb) throws Exception {
+        ps.setString(1, name);
+        for (int tense = 0; tense < ConjugationProcessor.TENSE_COUNT; tense++) {
+            StringBuilder forms = new StringBuilder();
+            for (int person = 0; person < ConjugationProcessor.PERSON_COUNT; person++) {
+                forms.append(person > 0 ? "|" : "");
+                int n = verb + tense * 6 + person;
+                forms.append(n % 5 == 0 ? "null" : n % 5 == 1 ? "forme" + n + "/autre" + n : "forme" + (n % 11) + "é");
+            }
+            ps.setString(tense + 2, forms.toString());
+        }
+        ps.executeUpdate();
+    }
+
+    /**
+     * @return The definitions by name, in BINARY collation order, the first inserted one for duplicate names
+     */
+    private static Map<String, String> expected(Connection connection) throws Exception {
+        DefinitionCodec codec = DefinitionCodec.load(connection, "main");
+        Map<String, String> expected = new LinkedHashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name, definition FROM Word ORDER BY name COLLATE BINARY, rowid")) {
+            while (rs.next()) {
+                if (!expected.containsKey(rs.getString(1))) {
+                    byte[] compressed = codec == null ? null : rs.getBytes(2);
+                    String definition = codec == null ? rs.getString(2) : compressed == null ? null : codec.decompress(compressed);
+                    expected.put(rs.getString(1), definition == null ? "" : definition);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * @param names In BINARY collation order, nameBytes being their UTF-8
+     */
+    private static void checkPrefix(String name, BinaryDictionary dictionary, List<String> names, List<byte[]> nameBytes,
+                                    String prefix, int limit) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < names.size() && expected.size() < limit; i++) {
+            byte[] word = nameBytes.get(i);
+            if (word.length >= bytes.length && Arrays.equals(word, 0, bytes.length, bytes, 0, bytes.length)) {
+                expected.add(names.get(i));
+            }
+        }
+        List<String> actual = dictionary.prefix(prefix, limit);
+        check(actual.equals(expected), name + ": prefix(\"" + prefix + "\", " + limit + ") gave " + actual + " instead of " + expected);
+    }
+
+    private static void checkConjugation(String name, BinaryDictionary dictionary, DictionaryReader reader, String word) throws Exception {
+        DictionaryReader.Conjugation expected = reader.conjugation(word);
+        DictionaryReader.Conjugation actual = dictionary.conjugation(word);
+        check((expected == null) == (actual == null), name + ": conjugation(\"" + word + "\") is " + actual + " instead of " + expected);
+        if (expected == null) {
+            return;
+        }
+        for (int tense = 0; tense < ConjugationProcessor.TENSE_COUNT; tense++) {
+            for (int person = 0; person < ConjugationProcessor.PERSON_COUNT; person++) {
+                check(Arrays.equals(actual.forms(tense, person), expected.forms(tense, person)), name + ": conjugation(\"" + word
+                        + "\") has " + Arrays.toString(actual.forms(tense, person)) + " for tense " + tense + " person " + person
+                        + " instead of " + Arrays.toString(expected.forms(tense, person)));
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("BinaryDictionaryCheck failed: " + message);
+        }
+    }
+}
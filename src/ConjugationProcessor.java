@@ -7,27 +7,123 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Process conjugation
+ * Process conjugation. The conjugations can be collected from several threads, each into its own
+ * Partial, and the partials merged afterwards. As long as they are merged in the order the words
+ * were processed, the result is the same as processing all the words on a single thread.
  * Created by Chin on 29-Jan-17.
  */
 public class ConjugationProcessor {
+    // tenses/moods, in the order of the columns of the table
+    private static final int PRESENT_INDICATIF = 0;
+    private static final int IMPARFAIT_INDICATIF = 1;
+    private static final int PASSE_SIMPLE = 2;
+    private static final int FUTUR_SIMPLE = 3;
+    private static final int PRESENT_SUBJONCTIF = 4;
+    private static final int IMPARFAIT_SUBJONCTIF = 5;
+    private static final int CONDITIONEL = 6;
+    private static final int IMPERATIF = 7;        // only need 3 persons
+    static final int TENSE_COUNT = 8;
+    static final int PERSON_COUNT = 6;
+
+    // the columns of the tenses/moods in the table, each holding the forms of the persons joined with "|"
+    static final String[] TENSE_COLUMNS = {"presentIndicatif", "imparfaitIndicatif", "passeSimple", "futurSimple",
+            "presentSubjonctif", "imparfaitSubjunctif", "conditionel", "imperatif"};
+
+    // slots of the tenses/moods, persons and numbers that tenseMoodMatcher can match
+    private static final Map<String, Integer> TENSES = new HashMap<>();
+    private static final Map<String, Integer> PERSONS = new HashMap<>();
+    private static final Map<String, Integer> NUMBERS = new HashMap<>();
+    static
+    {
+        TENSES.put("present indicative", PRESENT_INDICATIF);
+        TENSES.put("imperfect indicative", IMPARFAIT_INDICATIF);
+        TENSES.put("past historic", PASSE_SIMPLE);
+        TENSES.put("simple future", FUTUR_SIMPLE);
+        TENSES.put("future", FUTUR_SIMPLE);
+        TENSES.put("future indicative", FUTUR_SIMPLE);
+        TENSES.put("indicative future", FUTUR_SIMPLE);
+        TENSES.put("present subjunctive", PRESENT_SUBJONCTIF);
+        TENSES.put("imperfect subjunctive", IMPARFAIT_SUBJONCTIF);
+        TENSES.put("conditional", CONDITIONEL);
+        TENSES.put("imperative", IMPERATIF);
+        TENSES.put("present imperative", IMPERATIF);
+        PERSONS.put("first", 0);
+        PERSONS.put("second", 1);
+        PERSONS.put("third", 2);
+        NUMBERS.put("singular", 0);
+        NUMBERS.put("plural", 3);
+    }
+
+    // every sentence that tenseMoodMatcher matches contains one of these
+    private static final AhoCorasick PERSON_SCREEN = new AhoCorasick(
+            "irst-person singular ", "irst-person plural ",
+            "econd-person singular ", "econd-person plural ",
+            "hird-person singular ", "hird-person plural ");
+
     private static class Conjugation {
-        String[] presentIndicatif = new String[6];
-        String[] imparfaitIndicatif = new String[6];
-        String[] passeSimple = new String[6];
-        String[] futurSimple = new String[6];
-        String[] presentSubjunctif = new String[6];
-        String[] imparfaitSubjunctif = new String[6];
-        String[] conditionel = new String[6];
-        String[] imperatif = new String[6]; // only need 3
+        // one slot per tense and person. A slot holds a String, or a StringBuilder once there
+        // are several forms, so that adding a form doesn't copy the ones before it
+        final CharSequence[] forms = new CharSequence[TENSE_COUNT * PERSON_COUNT];
+        boolean fromTable;
+
+        void add(int tense, int person, CharSequence form) {
+            int slot = tense * PERSON_COUNT + person;
+            CharSequence current = forms[slot];
+            if (current == null) {
+                forms[slot] = form;
+            }
+            else if (current instanceof StringBuilder) {
+                ((StringBuilder) current).append('/').append(form);
+            }
+            else {
+                forms[slot] = new StringBuilder(current).append('/').append(form);
+            }
+        }
+
+        /**
+         * @return The forms of the tense, separated by |, with "null" for the missing ones
+         */
+        String join(int tense) {
+            StringBuilder sb = new StringBuilder();
+            for (int person = 0; person < PERSON_COUNT; person++) {
+                if (person > 0) {
+                    sb.append('|');
+                }
+                sb.append(forms[tense * PERSON_COUNT + person]);
+            }
+            return sb.toString();
+        }
     }
 
-    private final HashMap<String, Conjugation> conjugationMap = new HashMap<>();
-    private Pattern tenseMoodMatcher;
+    /**
+     * Conjugations collected by a single thread. Not thread-safe.
+     */
+    public class Partial {
+        private final Map<String, Conjugation> conjugationMap = new HashMap<>();
+
+        public boolean processConjugation(String word, String sentence) {
+            return ConjugationProcessor.this.processConjugation(conjugationMap, word, sentence);
+        }
+
+        public void processConjugationFromTable(String word, Element table) {
+            ConjugationProcessor.this.processConjugationFromTable(conjugationMap, word, table);
+        }
+
+        /**
+         * @return The number of verbs with a conjugation so far, also used by Benchmarks to consume the work
+         */
+        int size() {
+            return conjugationMap.size();
+        }
+    }
+
+    private final Map<String, Conjugation> conjugationMap = new HashMap<>();
+    Pattern tenseMoodMatcher;       // also used by Benchmarks, to measure what PERSON_SCREEN saves
     private PreparedStatement psInsertConj;
 
     public ConjugationProcessor(Connection connection) throws SQLException {
@@ -43,6 +139,7 @@ public class ConjugationProcessor {
                 "conditionel TEXT NOT NULL, " +
                 "imperatif TEXT NOT NULL)";
         stmt.executeUpdate(sql);
+        stmt.executeUpdate("CREATE INDEX conjugation_name_idx ON Conjugation (name)");
 
         psInsertConj = connection.prepareStatement("INSERT INTO Conjugation (name, presentIndicatif," +
                 "imparfaitIndicatif, passeSimple, futurSimple, presentSubjonctif, imparfaitSubjunctif, conditionel, imperatif)" +
@@ -57,7 +154,63 @@ public class ConjugationProcessor {
         tenseMoodMatcher = Pattern.compile(regex);
     }
 
-    public boolean processConjugation(String word, String sentence) {
+    /**
+     * @return A new accumulator, to be merged back with merge()
+     */
+    public Partial newPartial() {
+        return new Partial();
+    }
+
+    /**
+     * Add the conjugations of a partial, as if its words had been processed here after the ones so far
+     */
+    public synchronized void merge(Partial partial) {
+        for (Map.Entry<String, Conjugation> entry : partial.conjugationMap.entrySet()) {
+            String word = entry.getKey();
+            Conjugation conj = entry.getValue();
+            Conjugation current = conjugationMap.get(word);
+            if (current == null || conj.fromTable) {
+                // a table replaces whatever was there, like processConjugationFromTable() does
+                if (current != null) {
+                    System.out.println();
+                    System.out.println("Warning: Conjugation already exists for word: " + word);
+                }
+                conjugationMap.put(word, conj);
+            }
+            else {
+                for (int slot = 0; slot < conj.forms.length; slot++) {
+                    if (conj.forms[slot] != null) {
+                        current.add(slot / PERSON_COUNT, slot % PERSON_COUNT, conj.forms[slot]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the conjugation from a definition such as "first-person singular present indicative of parler".
+     * WiktionaryProcessor doesn't call this at the moment (its call is commented out), it takes the
+     * conjugations from the tables instead.
+     * @return Whether the sentence is a conjugation
+     */
+    public synchronized boolean processConjugation(String word, String sentence) {
+        return processConjugation(conjugationMap, word, sentence);
+    }
+
+    /**
+     * Use either this or processConjugation(), not both
+     * @param table The conjugation table
+     */
+    public synchronized void processConjugationFromTable(String word, Element table) {
+        processConjugationFromTable(conjugationMap, word, table);
+    }
+
+    private boolean processConjugation(Map<String, Conjugation> conjugationMap, String word, String sentence) {
+        // most sentences aren't conjugations at all, don't bother running the regex on them
+        if (!PERSON_SCREEN.containsAny(sentence)) {
+            return false;
+        }
+
         Matcher matcher = tenseMoodMatcher.matcher(sentence);
         if (matcher.find()) {
             String person = matcher.group(1);
@@ -70,143 +223,64 @@ public class ConjugationProcessor {
             }
 
             Conjugation conj = conjugationMap.get(infinitif);
-            String[] tenseMoodArr;
-            switch (tenseMood) {
-                case "present indicative":
-                    tenseMoodArr = conj.presentIndicatif;
-                    break;
-                case "imperfect indicative":
-                    tenseMoodArr = conj.imparfaitIndicatif;
-                    break;
-                case "past historic":
-                    tenseMoodArr = conj.passeSimple;
-                    break;
-                case "simple future":
-                case "future":
-                case "future indicative":
-                case "indicative future":
-                    tenseMoodArr = conj.futurSimple;
-                    break;
-                case "present subjunctive":
-                    tenseMoodArr = conj.presentSubjunctif;
-                    break;
-                case "imperfect subjunctive":
-                    tenseMoodArr = conj.imparfaitSubjunctif;
-                    break;
-                case "conditional":
-                    tenseMoodArr = conj.conditionel;
-                    break;
-                case "imperative":
-                case "present imperative":
-                    tenseMoodArr = conj.imperatif;
-                    break;
-                default:
-                    throw new Error("Unknown tense/mood: " + tenseMood + " for word: " + word);
-            }
-
-            int idx;
-            person = person.toLowerCase();
-            switch(person) {
-                case "first":
-                    switch (number) {
-                        case "singular":
-                            idx = 0;
-                            break;
-                        case "plural":
-                            idx = 3;
-                            break;
-                        default:
-                            throw new Error("Unknown number: " + number + " for word: " + word);
-                    }
-                    break;
-                case "second":
-                    switch (number) {
-                        case "singular":
-                            idx = 1;
-                            break;
-                        case "plural":
-                            idx = 4;
-                            break;
-                        default:
-                            throw new Error("Unknown number: " + number + " for word: " + word);
-                    }
-                    break;
-                case "third":
-                    switch (number) {
-                        case "singular":
-                            idx = 2;
-                            break;
-                        case "plural":
-                            idx = 5;
-                            break;
-                        default:
-                            throw new Error("Unknown number: " + number + " for word: " + word);
-                    }
-                    break;
-                default:
-                    throw new Error("Unknown person: " + person + " for word: " + word);
-            }
-
-            if (tenseMoodArr[idx] == null) {
-                tenseMoodArr[idx] = word;
+            Integer tense = TENSES.get(tenseMood);
+            if (tense == null) {
+                throw new Error("Unknown tense/mood: " + tenseMood + " for word: " + word);
             }
-            else {
-                tenseMoodArr[idx] = tenseMoodArr[idx] + "/" + word;
+            Integer personIdx = PERSONS.get(person.toLowerCase());
+            if (personIdx == null) {
+                throw new Error("Unknown person: " + person.toLowerCase() + " for word: " + word);
             }
+            int idx = personIdx + NUMBERS.get(number);
 
+            conj.add(tense, idx, word);
             return true;
         }
 
         return false;
     }
 
-    /**
-     * Use either this or processConjugation(), not both
-     * @param table The conjugation table
-     */
-    public void processConjugationFromTable(String word, Element table) {
+    private void processConjugationFromTable(Map<String, Conjugation> conjugationMap, String word, Element table) {
         if (conjugationMap.containsKey(word)) {
             System.out.println();
             System.out.println("Warning: Conjugation already exists for word: " + word);
         }
 
         Conjugation conj = new Conjugation();
+        conj.fromTable = true;
         Element tbody = table.getElementsByTag("tbody").first();
         Elements rows = tbody.getElementsByTag("tr");
 
         // row index for present indicative, imperfect indicative, past historic, future, conditional,
         // present subjunctive, imperfect subjective, imperative
         int[] rowIdx = new int[] {8,9,10,11,12,19,20,24};
-        String[][] conjArr = new String[][] {conj.presentIndicatif, conj.imparfaitIndicatif, conj.passeSimple,
-            conj.futurSimple, conj.conditionel, conj.presentSubjunctif, conj.imparfaitSubjunctif, conj.imperatif};
+        int[] tenses = new int[] {PRESENT_INDICATIF, IMPARFAIT_INDICATIF, PASSE_SIMPLE, FUTUR_SIMPLE, CONDITIONEL,
+            PRESENT_SUBJONCTIF, IMPARFAIT_SUBJONCTIF, IMPERATIF};
 
         for (int i = 0; i < rowIdx.length; i++) {
             Element row = rows.get(rowIdx[i]);
-            String[] arr = conjArr[i];
             Elements tds = row.getElementsByTag("td");
 
-            for (int j = 0; j < 6; j++) {
+            for (int j = 0; j < PERSON_COUNT; j++) {
                 Element td = tds.get(j);
-                arr[j] = td.textNodes().get(0).text();
+                conj.forms[tenses[i] * PERSON_COUNT + j] = td.textNodes().get(0).text();
             }
         }
 
         conjugationMap.put(word, conj);
     }
 
-    public void saveToTable() throws SQLException {
-        for (Map.Entry<String, Conjugation> entry : conjugationMap.entrySet()) {
+    /**
+     * Write all the conjugations, sorted by verb so that the table doesn't depend on the processing order
+     */
+    public synchronized void saveToTable() throws SQLException {
+        for (Map.Entry<String, Conjugation> entry : new TreeMap<>(conjugationMap).entrySet()) {
             String word = entry.getKey();
             Conjugation conj = entry.getValue();
             psInsertConj.setString(1, word);
-            psInsertConj.setString(2, String.join("|", conj.presentIndicatif));
-            psInsertConj.setString(3, String.join("|", conj.imparfaitIndicatif));
-            psInsertConj.setString(4, String.join("|", conj.passeSimple));
-            psInsertConj.setString(5, String.join("|", conj.futurSimple));
-            psInsertConj.setString(6, String.join("|", conj.presentSubjunctif));
-            psInsertConj.setString(7, String.join("|", conj.imparfaitSubjunctif));
-            psInsertConj.setString(8, String.join("|", conj.conditionel));
-            psInsertConj.setString(9, String.join("|", conj.imperatif));
+            for (int tense = 0; tense < TENSE_COUNT; tense++) {
+                psInsertConj.setString(tense + 2, conj.join(tense));
+            }
             psInsertConj.executeUpdate();
         }
     }
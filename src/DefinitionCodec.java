@@ -0,0 +1,318 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate with a preset dictionary trained on the definitions themselves. A definition is short
+ * and compressed on its own, so plain deflate has nothing to refer back to, while the markup is
+ * the same on every entry. With the dictionary, even the first <ol><li> of a definition is a
+ * back-reference. The dictionary is kept in the Compression table, and each definition is stored
+ * in the definition column as a raw deflate BLOB instead of TEXT.
+ */
+public class DefinitionCodec {
+    static final String METHOD = "deflate";
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024;      // the deflate window, anything before is out of reach
+    private static final int TRAINING_SAMPLES = 2000;
+    private static final int MAX_PIECE_LENGTH = 96;
+    private static final int BATCH_SIZE = 1000;
+
+    private final byte[] dictionary;
+    private final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public DefinitionCodec(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public byte[] compress(String definition) {
+        Deflater d = deflater.get();
+        d.reset();
+        if (dictionary.length > 0) {
+            d.setDictionary(dictionary);
+        }
+        d.setInput(definition.getBytes(StandardCharsets.UTF_8));
+        d.finish();
+        return drain(d);
+    }
+
+    public String decompress(byte[] compressed) {
+        Inflater i = inflater.get();
+        i.reset();
+        if (dictionary.length > 0) {
+            i.setDictionary(dictionary);
+        }
+        // raw deflate needs a dummy byte after the data, without it an empty definition never finishes
+        i.setInput(Arrays.copyOf(compressed, compressed.length + 1));
+        byte[] buf = new byte[Math.max(256, compressed.length * 4)];
+        int len = 0;
+        try {
+            while (!i.finished()) {
+                if (len == buf.length) {
+                    byte[] grown = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, grown, 0, len);
+                    buf = grown;
+                }
+                int n = i.inflate(buf, len, buf.length - len);
+                if (n == 0 && !i.finished() && (i.needsInput() || i.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated definition");
+                }
+                len += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted definition", e);
+        }
+        return new String(buf, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Pick the strings that would save the most if they were in the dictionary. The samples are cut
+     * into pieces that start at a tag (e.g. "<h4>Noun", "</h4>", "<li>(transitive) "), and each
+     * piece, alone or followed by the next one, is scored by how often it occurs times its length.
+     * @return The dictionary, with the best strings at the end where they are the cheapest to refer to
+     */
+    public static byte[] train(List<String> samples, int maxSize) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String sample : samples) {
+            List<String> pieces = new ArrayList<>();
+            int start = 0;
+            for (int i = sample.indexOf('<', 1); start < sample.length(); i = sample.indexOf('<', i + 1)) {
+                int end = i < 0 ? sample.length() : i;
+                pieces.add(sample.substring(start, Math.min(end, start + MAX_PIECE_LENGTH)));
+                start = end;
+                if (i < 0) {
+                    break;
+                }
+            }
+            for (int i = 0; i < pieces.size(); i++) {
+                counts.merge(pieces.get(i), 1, Integer::sum);
+                if (i + 1 < pieces.size() && pieces.get(i).length() + pieces.get(i + 1).length() <= MAX_PIECE_LENGTH) {
+                    counts.merge(pieces.get(i) + pieces.get(i + 1), 1, Integer::sum);
+                }
+            }
+        }
+
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            // deflate can't use matches shorter than 3 bytes anyway
+            if (entry.getValue() > 1 && entry.getKey().length() > 3) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(score(b), score(a)));
+
+        List<String> picked = new ArrayList<>();
+        StringBuilder all = new StringBuilder();
+        int size = 0;
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            String piece = candidate.getKey();
+            int pieceSize = piece.getBytes(StandardCharsets.UTF_8).length;
+            if (size + pieceSize > maxSize || all.indexOf(piece) >= 0) {
+                continue;
+            }
+            picked.add(piece);
+            all.append(piece);
+            size += pieceSize;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            byte[] bytes = picked.get(i).getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static long score(Map.Entry<String, Integer> entry) {
+        return (long) entry.getValue() * (entry.getKey().length() - 2);
+    }
+
+    /**
+     * @param schema The attached database to look in, e.g. "main"
+     * @return The codec of the database, or null if its definitions aren't compressed
+     */
+    public static DefinitionCodec load(Connection connection, String schema) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + schema + ".sqlite_master WHERE type = 'table' AND name = 'Compression'");
+            if (rs.getInt(1) == 0) {
+                return null;
+            }
+            rs = stmt.executeQuery("SELECT method, dictionary FROM " + schema + ".Compression");
+            if (!rs.next()) {
+                return null;
+            }
+            if (!METHOD.equals(rs.getString(1))) {
+                throw new SQLException("Unknown compression method " + rs.getString(1));
+            }
+            return new DefinitionCodec(rs.getBytes(2));
+        }
+    }
+
+    /**
+     * Train a dictionary on a sample of the definitions of the Word table, store it, and replace
+     * every definition with its compressed BLOB. The database is vacuumed afterwards so that the
+     * space is given back.
+     */
+    public static void compressDefinitions(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        List<String> samples = new ArrayList<>();
+        try (Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Word WHERE definition IS NOT NULL");
+            int step = Math.max(1, rs.getInt(1) / TRAINING_SAMPLES);
+
+            // every step-th word rather than random ones, so that the output is the same on every run
+            rs = stmt.executeQuery("SELECT definition FROM Word WHERE definition IS NOT NULL AND rowid % " + step + " = 0");
+            while (rs.next()) {
+                samples.add(rs.getString(1));
+            }
+        }
+        DefinitionCodec codec = new DefinitionCodec(train(samples, MAX_DICTIONARY_SIZE));
+        logLine("Trained a " + codec.dictionary.length + " bytes dictionary on " + samples.size() + " definitions in "
+                + (System.nanoTime() - start) / 1000000 + " ms.");
+
+        // how it compares with the same definitions compressed one by one without the dictionary. Done
+        // before anything is written, so that a codec that can't read back its own output stops here
+        DefinitionCodec plain = new DefinitionCodec(new byte[0]);
+        long plainSize = 0, withDictionary = 0, decompressNanos = 0;
+        for (String sample : samples) {
+            plainSize += plain.compress(sample).length;
+            byte[] compressed = codec.compress(sample);
+            withDictionary += compressed.length;
+            long t = System.nanoTime();
+            if (!codec.decompress(compressed).equals(sample)) {
+                throw new IllegalStateException("A definition doesn't round-trip through the codec: " + sample);
+            }
+            decompressNanos += System.nanoTime() - t;
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        long[] sizes;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE Compression (method TEXT NOT NULL, dictionary BLOB NOT NULL)");
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO Compression (method, dictionary) VALUES (?,?)")) {
+                ps.setString(1, METHOD);
+                ps.setBytes(2, codec.dictionary);
+                ps.executeUpdate();
+            }
+            sizes = codec.rewriteDefinitions(connection, true);
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        logLine(String.format("Compressed %d definitions from %.1f MB to %.1f MB in %d ms. On the samples, %.1f%% of "
+                + "the text size with the dictionary, %.1f%% without, and %.1f µs to decompress a definition.",
+                sizes[0], sizes[1] / 1e6, sizes[2] / 1e6, (System.nanoTime() - start) / 1000000,
+                100.0 * withDictionary / Math.max(1, utf8Size(samples)), 100.0 * plainSize / Math.max(1, utf8Size(samples)),
+                decompressNanos / 1e3 / Math.max(1, samples.size())));
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("VACUUM");
+        }
+    }
+
+    /**
+     * Put back as TEXT the definitions of the Word table that are compressed with this codec, e.g.
+     * the ones copied from a compressed previous processed db
+     */
+    public void decompressDefinitions(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            rewriteDefinitions(connection, false);
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Go through the Word table by rowid ranges, so that the table is never updated while it's being read
+     * @return The number of definitions rewritten, their size before and after
+     */
+    private long[] rewriteDefinitions(Connection connection, boolean compress) throws SQLException {
+        long[] sizes = new long[3];
+        String type = compress ? "text" : "blob";
+        try (PreparedStatement psSelect = connection.prepareStatement("SELECT rowid, definition FROM Word "
+                + "WHERE rowid > ? AND typeof(definition) = '" + type + "' ORDER BY rowid LIMIT " + BATCH_SIZE);
+             PreparedStatement psUpdate = connection.prepareStatement("UPDATE Word SET definition = ? WHERE rowid = ?")) {
+            long last = Long.MIN_VALUE;
+            while (true) {
+                List<Long> rowids = new ArrayList<>(BATCH_SIZE);
+                List<Object> definitions = new ArrayList<>(BATCH_SIZE);
+                psSelect.setLong(1, last);
+                try (ResultSet rs = psSelect.executeQuery()) {
+                    while (rs.next()) {
+                        rowids.add(rs.getLong(1));
+                        definitions.add(compress ? rs.getString(2) : rs.getBytes(2));
+                    }
+                }
+                if (rowids.isEmpty()) {
+                    break;
+                }
+
+                for (int i = 0; i < rowids.size(); i++) {
+                    if (compress) {
+                        String definition = (String) definitions.get(i);
+                        byte[] compressed = compress(definition);
+                        sizes[1] += definition.getBytes(StandardCharsets.UTF_8).length;
+                        sizes[2] += compressed.length;
+                        psUpdate.setBytes(1, compressed);
+                    }
+                    else {
+                        psUpdate.setString(1, decompress((byte[]) definitions.get(i)));
+                    }
+                    psUpdate.setLong(2, rowids.get(i));
+                    psUpdate.addBatch();
+                }
+                psUpdate.executeBatch();
+                sizes[0] += rowids.size();
+                last = rowids.get(rowids.size() - 1);
+            }
+        }
+        return sizes;
+    }
+
+    private static long utf8Size(List<String> strings) {
+        long size = 0;
+        for (String s : strings) {
+            size += s.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+
+    private static byte[] drain(Deflater d) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        while (!d.finished()) {
+            int n = d.deflate(buf);
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void logLine(String txt) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + ": " + txt);
+    }
+}
@@ -0,0 +1,109 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Check that DefinitionCodec gives back what it compressed, run as a program:
+ *   java DefinitionCodecCheck
+ * - an empty definition, ASCII, accented text, and a text that inflates to more than the first buffer,
+ *   both without a dictionary and with one trained on the definitions
+ * - a truncated BLOB is an error, not a shorter definition
+ * - compressDefinitions() and decompressDefinitions() on a Word table with empty and NULL definitions
+ * Exits with an error if any of these doesn't hold.
+ */
+public class DefinitionCodecCheck {
+    private static final List<String> DEFINITIONS = Arrays.asList(
+            "",
+            "<p><b>chat</b> m (plural chats)</p>\n<ol>\n <li>cat</li>\n</ol>",
+            "<p><b>été</b> m</p>\n<ol>\n <li>summer</li>\n <li>été, past participle of être, « été » — œuvre</li>\n</ol>",
+            "<ol>" + String.join("", Collections.nCopies(2000, "<li>(transitive) to speak</li>")) + "</ol>");
+
+    public static void main(String argv[]) throws Exception {
+        try {
+            checkRoundTrip(new DefinitionCodec(new byte[0]), "no dictionary");
+            DefinitionCodec trained = new DefinitionCodec(DefinitionCodec.train(DEFINITIONS, DefinitionCodec.MAX_DICTIONARY_SIZE));
+            check(trained.getDictionary().length > 0, "no dictionary trained");
+            checkRoundTrip(trained, "trained dictionary");
+            checkTable();
+            System.out.println("DefinitionCodecCheck: OK");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void checkRoundTrip(DefinitionCodec codec, String name) {
+        for (String definition : DEFINITIONS) {
+            byte[] compressed = codec.compress(definition);
+            String decompressed = codec.decompress(compressed);
+            check(decompressed.equals(definition), name + ": " + describe(definition) + " came back as " + describe(decompressed));
+            // the codec is reused across calls, as it is on a whole table
+            check(codec.decompress(compressed).equals(definition), name + ": " + describe(definition) + " differs the second time");
+        }
+
+        byte[] compressed = codec.compress(DEFINITIONS.get(3));
+        try {
+            String decompressed = codec.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+            check(false, name + ": a truncated BLOB gave " + decompressed.length() + " chars");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void checkTable() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            List<String> rows = new ArrayList<>();
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate(WiktionaryProcessor.CREATE_WORD_TABLE);
+            }
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO Word (name, definition) VALUES (?,?)")) {
+                for (int i = 0; i < 50; i++) {
+                    String definition = i % 5 == 0 ? null : DEFINITIONS.get(i % DEFINITIONS.size());
+                    ps.setString(1, "word" + i);
+                    ps.setString(2, definition);
+                    ps.executeUpdate();
+                    rows.add(definition);
+                }
+            }
+
+            DefinitionCodec.compressDefinitions(connection);
+            DefinitionCodec codec = DefinitionCodec.load(connection, "main");
+            check(codec != null, "no dictionary stored");
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT definition FROM Word ORDER BY rowid")) {
+                for (String definition : rows) {
+                    check(rs.next(), "rows lost");
+                    byte[] compressed = rs.getBytes(1);
+                    check(definition == null ? compressed == null : codec.decompress(compressed).equals(definition),
+                            "the stored definition differs from " + describe(definition));
+                }
+            }
+
+            codec.decompressDefinitions(connection);
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT definition, typeof(definition) FROM Word ORDER BY rowid")) {
+                for (String definition : rows) {
+                    check(rs.next(), "rows lost");
+                    check(definition == null ? rs.getString(1) == null : definition.equals(rs.getString(1)) && rs.getString(2).equals("text"),
+                            "the decompressed definition differs from " + describe(definition));
+                }
+            }
+        }
+    }
+
+    private static String describe(String definition) {
+        return definition == null ? "NULL" : definition.length() > 60 ? definition.length() + " chars" : "\"" + definition + "\"";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("DefinitionCodecCheck failed: " + message);
+        }
+    }
+}
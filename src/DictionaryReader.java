@@ -0,0 +1,439 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+
+/**
+ * Read side of processed_dict.db. Lookups go through a small pool of read-only connections, each
+ * with its statements prepared once, and the decoded results (definitions decompressed,
+ * conjugations split into tense/person arrays) are kept in a bounded LRU cache, so that a repeated
+ * lookup doesn't touch the database at all. Thread-safe.
+ * Run as a program, it serves the lookups as JSON over HTTP on -Dport (default 8080):
+ * /word?q=chat, /search?q=Chat (case-insensitive), /prefix?q=cha&limit=20 and /conjugation?q=aller
+ */
+public class DictionaryReader implements Closeable {
+    private static final Object NONE = new Object();        // cached "not found"
+    private static final int MAX_PREFIX_LIMIT = 1000;
+
+    public static class Entry {
+        public final String name;
+        public final String definition;     // html
+
+        Entry(String name, String definition) {
+            this.name = name;
+            this.definition = definition;
+        }
+    }
+
+    public static class Conjugation {
+        public final String name;
+
+        // [tense][person][alternative], in the order of ConjugationProcessor.TENSE_COLUMNS and first
+        // to third person singular then plural. No alternative for the forms that don't exist.
+        private final String[][][] forms;
+
+        Conjugation(String name, String[][][] forms) {
+            this.name = name;
+            this.forms = forms;
+        }
+
+        /**
+         * @param tense Index in ConjugationProcessor.TENSE_COLUMNS
+         * @param person 0 to 5
+         * @return The forms, usually one, none if the verb has no such form
+         */
+        public String[] forms(int tense, int person) {
+            return forms[tense][person].clone();
+        }
+    }
+
+    /**
+     * A connection of the pool, with its statements
+     */
+    private static class Session {
+        final Connection connection;
+        final PreparedStatement ignoreCase;
+        final PreparedStatement prefix;
+        final PreparedStatement conjugation;
+
+        Session(Connection connection, boolean hasSearchKey) throws SQLException {
+            this.connection = connection;
+            ignoreCase = connection.prepareStatement("SELECT name, definition FROM Word WHERE name = ? COLLATE NOCASE");
+            // without search keys, a range on name_idx, which is NOCASE
+            prefix = connection.prepareStatement(hasSearchKey ? SearchIndex.PREFIX_SQL
+                    : "SELECT name FROM Word WHERE name >= ? COLLATE NOCASE AND name < ? COLLATE NOCASE "
+                    + "ORDER BY name COLLATE NOCASE LIMIT ?");
+            conjugation = connection.prepareStatement("SELECT " + String.join(", ", ConjugationProcessor.TENSE_COLUMNS)
+                    + " FROM Conjugation WHERE name = ?");
+        }
+    }
+
+    private interface Query<T> {
+        T run(Session session) throws SQLException;
+    }
+
+    private final BlockingQueue<Session> sessions;
+    private final List<Session> allSessions = new ArrayList<>();
+    private final DefinitionCodec codec;
+    private final boolean hasSearchKey;
+    private final Map<String, Object> cache;
+
+    /**
+     * @param path The processed db
+     * @param poolSize The number of connections, i.e. of lookups that can run at the same time
+     * @param cacheSize The maximum number of lookup results kept in memory, 0 to disable the cache
+     */
+    public DictionaryReader(String path, int poolSize, int cacheSize) throws SQLException {
+        sessions = new ArrayBlockingQueue<>(poolSize);
+        Properties properties = new Properties();
+        properties.setProperty("open_mode", "1");       // SQLITE_OPEN_READONLY
+        boolean searchKeyFound = false;
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path, properties);
+                if (i == 0) {
+                    try (Statement stmt = connection.createStatement();
+                         ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM pragma_table_info('Word') WHERE name = 'search_key'")) {
+                        searchKeyFound = rs.getInt(1) > 0;
+                    }
+                }
+                Session session = new Session(connection, searchKeyFound);
+                allSessions.add(session);
+                sessions.add(session);
+            }
+            codec = DefinitionCodec.load(allSessions.get(0).connection, "main");
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+        hasSearchKey = searchKeyFound;
+
+        cache = Collections.synchronizedMap(new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * @return The word with exactly that name, or null
+     */
+    public Entry lookup(String name) throws SQLException {
+        return cached("w\0" + name, () -> {
+            for (Entry entry : lookupIgnoreCase(name)) {
+                if (entry.name.equals(name)) {
+                    return entry;
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return The words with that name whatever the case, e.g. Nice and nice
+     */
+    public List<Entry> lookupIgnoreCase(String name) throws SQLException {
+        return cached("i\0" + name, () -> query(session -> {
+            session.ignoreCase.setString(1, name);
+            List<Entry> entries = new ArrayList<>();
+            try (ResultSet rs = session.ignoreCase.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new Entry(rs.getString(1), definition(rs)));
+                }
+            }
+            return Collections.unmodifiableList(entries);
+        }));
+    }
+
+    /**
+     * @return The names of the words starting with the prefix, ignoring case and accents if the db
+     * has search keys, only the case of A-Z otherwise, in key order
+     */
+    public List<String> prefix(String prefix, int limit) throws SQLException {
+        String key = hasSearchKey ? SearchIndex.foldKey(prefix) : asciiLowerCase(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int max = Math.min(limit, MAX_PREFIX_LIMIT);
+        return cached("p\0" + max + "\0" + key, () -> query(session -> {
+            session.prefix.setString(1, key);
+            session.prefix.setString(2, hasSearchKey ? SearchIndex.prefixEnd(key) : nocasePrefixEnd(key));
+            session.prefix.setInt(3, max);
+            List<String> names = new ArrayList<>();
+            try (ResultSet rs = session.prefix.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+            return Collections.unmodifiableList(names);
+        }));
+    }
+
+    /**
+     * @return The string with A-Z lowercased, which is how NOCASE compares, so that the bounds of
+     * the range are in name_idx's order
+     */
+    private static String asciiLowerCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return SearchIndex.prefixEnd() of the lowercased prefix, in NOCASE order, where A-Z sort as a-z
+     */
+    private static String nocasePrefixEnd(String key) {
+        String end = SearchIndex.prefixEnd(key);
+        // only a key ending with '@' gets an uppercase end, and the next character after it is '['
+        return end.endsWith("A") ? end.substring(0, end.length() - 1) + "[" : end;
+    }
+
+    /**
+     * @return The conjugation of the verb, or null if it has none
+     */
+    public Conjugation conjugation(String verb) throws SQLException {
+        return cached("c\0" + verb, () -> query(session -> {
+            session.conjugation.setString(1, verb);
+            try (ResultSet rs = session.conjugation.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                String[][][] forms = new String[ConjugationProcessor.TENSE_COUNT][ConjugationProcessor.PERSON_COUNT][];
+                for (int tense = 0; tense < ConjugationProcessor.TENSE_COUNT; tense++) {
+                    String[] persons = rs.getString(tense + 1).split("\\|", -1);
+                    for (int person = 0; person < ConjugationProcessor.PERSON_COUNT; person++) {
+                        String form = person < persons.length ? persons[person] : "null";
+                        forms[tense][person] = form.equals("null") || form.isEmpty() ? new String[0] : form.split("/");
+                    }
+                }
+                return new Conjugation(verb, forms);
+            }
+        }));
+    }
+
+    private String definition(ResultSet rs) throws SQLException {
+        if (codec == null) {
+            return rs.getString(2);
+        }
+        byte[] compressed = rs.getBytes(2);
+        return compressed == null ? null : codec.decompress(compressed);
+    }
+
+    private interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String key, Loader<T> loader) throws SQLException {
+        Object value = cache.get(key);
+        if (value == null) {
+            value = loader.load();
+            cache.put(key, value != null ? value : NONE);
+        }
+        return value == NONE ? null : (T) value;
+    }
+
+    private <T> T query(Query<T> query) throws SQLException {
+        Session session;
+        try {
+            session = sessions.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        try {
+            return query.run(session);
+        } finally {
+            sessions.add(session);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Session session : allSessions) {
+            try {
+                session.connection.close();
+            } catch (SQLException e) {
+                // nothing more to do with it anyway
+            }
+        }
+    }
+
+    public static void main(String argv[]) throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        String path = argv.length > 0 ? argv[0] : "processed_dict.db";
+        int threads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+        DictionaryReader reader = new DictionaryReader(path, threads, Integer.getInteger("cacheSize", 10000));
+        HttpServer server = serve(reader, Integer.getInteger("port", 8080), threads);
+        logLine("Serving " + path + " on port " + server.getAddress().getPort() + ".");
+    }
+
+    /**
+     * Start serving the lookups of the reader over HTTP
+     * @param port 0 for any free port
+     */
+    static HttpServer serve(DictionaryReader reader, int port, int threads) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/word", exchange -> respond(exchange, params -> toJson(reader.lookup(params.get("q")))));
+        server.createContext("/search", exchange -> respond(exchange, params -> toJson(reader.lookupIgnoreCase(params.get("q")))));
+        server.createContext("/prefix", exchange -> respond(exchange, params -> toJson(reader.prefix(params.get("q"),
+                params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 20))));
+        server.createContext("/conjugation", exchange -> respond(exchange, params -> toJson(reader.conjugation(params.get("q")))));
+        // daemon threads, the server's own thread is the one that keeps the program running
+        server.setExecutor(Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "dictionary-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        return server;
+    }
+
+    private interface Handler {
+        String handle(Map<String, String> params) throws Exception;
+    }
+
+    private static void respond(HttpExchange exchange, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (params.get("q") == null) {
+                status = 400;
+                body = "{\"error\":\"missing q\"}";
+            }
+            else {
+                body = handler.handle(params);
+            }
+        } catch (NumberFormatException e) {
+            status = 400;
+            body = "{\"error\":\"bad limit\"}";
+        } catch (Exception e) {
+            status = 500;
+            body = "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"), URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static String toJson(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof String) {
+            return quote((String) value);
+        }
+        if (value instanceof String[]) {
+            return toJson(Arrays.asList((String[]) value));
+        }
+        if (value instanceof List) {
+            StringBuilder sb = new StringBuilder("[");
+            for (Object item : (List<?>) value) {
+                sb.append(sb.length() > 1 ? "," : "").append(toJson(item));
+            }
+            return sb.append(']').toString();
+        }
+        if (value instanceof Entry) {
+            Entry entry = (Entry) value;
+            return "{\"name\":" + quote(entry.name) + ",\"definition\":" + toJson(entry.definition) + "}";
+        }
+
+        Conjugation conjugation = (Conjugation) value;
+        StringBuilder sb = new StringBuilder("{\"name\":").append(quote(conjugation.name));
+        for (int tense = 0; tense < ConjugationProcessor.TENSE_COUNT; tense++) {
+            sb.append(",").append(quote(ConjugationProcessor.TENSE_COLUMNS[tense])).append(":[");
+            for (int person = 0; person < ConjugationProcessor.PERSON_COUNT; person++) {
+                sb.append(person > 0 ? "," : "").append(toJson(conjugation.forms[tense][person]));
+            }
+            sb.append(']');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void logLine(String txt) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + ": " + txt);
+    }
+}
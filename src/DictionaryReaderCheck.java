@@ -0,0 +1,326 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Check the lookups of DictionaryReader on small processed dbs, run as a program:
+ *   java DictionaryReaderCheck
+ * - a db with search keys and plain definitions, and one with compressed definitions and no search
+ *   keys, both with an empty definition, case and accent variants of the same word, and conjugations
+ * - lookup, lookupIgnoreCase, prefix and conjugation give what was written, with a pool of one
+ *   connection and no cache, and from 8 threads sharing a pool of 3 connections and a cache far
+ *   smaller than the words looked up
+ * - /word, /search, /prefix and /conjugation over HTTP on a local port, and their errors
+ * Exits with an error if any of these doesn't hold.
+ */
+public class DictionaryReaderCheck {
+    private static final int GENERATED_WORDS = 2000;
+    private static final int THREADS = 8;
+    private static final int LOOKUPS_PER_THREAD = 4000;
+
+    // the names that are equal with NOCASE, i.e. ignoring the case of A-Z only, by lowercased name
+    private static final Map<String, Set<String>> namesIgnoringCase = new HashMap<>();
+
+    public static void main(String argv[]) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        Path dir = Files.createTempDirectory("dictionary_reader_check");
+        try {
+            Map<String, String> words = words();
+            for (String word : words.keySet()) {
+                namesIgnoringCase.computeIfAbsent(asciiLowerCase(word), k -> new HashSet<>()).add(word);
+            }
+            String plain = makeDb(dir.resolve("plain.db"), words, false);
+            String compressed = makeDb(dir.resolve("compressed.db"), words, true);
+            for (String db : new String[] {plain, compressed}) {
+                boolean foldAccents = db.equals(plain);
+                try (DictionaryReader reader = new DictionaryReader(db, 1, 0)) {
+                    checkLookups(reader, words, foldAccents);
+                }
+                try (DictionaryReader reader = new DictionaryReader(db, 3, 50)) {
+                    checkConcurrentLookups(reader, words, foldAccents);
+                }
+            }
+            try (DictionaryReader reader = new DictionaryReader(compressed, 2, 100)) {
+                checkServer(reader);
+            }
+            System.out.println("DictionaryReaderCheck: OK");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * @return Name to definition, in insertion order
+     */
+    private static Map<String, String> words() {
+        Map<String, String> words = new LinkedHashMap<>();
+        words.put("chat", "<ol>\n <li>cat</li>\n</ol>");
+        words.put("Chat", "<ol>\n <li>A surname.</li>\n</ol>");
+        words.put("été", "<ol>\n <li>summer</li>\n</ol>");
+        words.put("Été", "<ol>\n <li>A given name.</li>\n</ol>");
+        words.put("ete", "<ol>\n <li>Misspelling of été.</li>\n</ol>");
+        words.put("œuvre", "<ol>\n <li>work</li>\n</ol>");
+        words.put("vide", "");
+        words.put("citation", "<p>« \"quoted\" » \\ and\ta tab</p>");
+        words.put("parler", "<ol>\n <li>to speak</li>\n</ol>");
+        words.put("payer", "<ol>\n <li>to pay</li>\n</ol>");
+        for (int i = 0; i < GENERATED_WORDS; i++) {
+            words.put("mot" + i, "<ol>\n <li>word number " + i + ", generated for the check</li>\n</ol>");
+        }
+        return words;
+    }
+
+    private static String makeDb(Path path, Map<String, String> words, boolean compress) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate(WiktionaryProcessor.CREATE_WORD_TABLE);
+                stmt.executeUpdate("CREATE INDEX name_idx ON Word (name collate nocase)");
+            }
+            new ConjugationProcessor(connection);
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO Word (name, definition) VALUES (?,?)")) {
+                for (Map.Entry<String, String> word : words.entrySet()) {
+                    ps.setString(1, word.getKey());
+                    ps.setString(2, word.getValue());
+                    ps.executeUpdate();
+                }
+            }
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO Conjugation VALUES (?,?,?,?,?,?,?,?,?)")) {
+                insertConjugation(ps, "parler", "parle|parles|parle|parlons|parlez|parlent", "null|parle|null|parlons|parlez|null");
+                insertConjugation(ps, "payer", "paye/paie|payes/paies|paye/paie|payons|payez|payent/paient", "null|paye/paie|null|payons|payez|null");
+            }
+
+            if (compress) {
+                DefinitionCodec.compressDefinitions(connection);
+            }
+            else {
+                SearchIndex.build(connection);
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("backup to " + path);
+            }
+        }
+
+        if (compress) {
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+                 Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Word WHERE typeof(definition) <> 'blob'")) {
+                check(rs.getInt(1) == 0, rs.getInt(1) + " definitions not compressed");
+            }
+        }
+        return path.toString();
+    }
+
+    /**
+     * @param indicative The present indicative, the other tenses but the imperative missing
+     */
+    private static void insertConjugation(PreparedStatement ps, String verb, String indicative, String imperative) throws Exception {
+        ps.setString(1, verb);
+        for (int tense = 0; tense < ConjugationProcessor.TENSE_COUNT; tense++) {
+            ps.setString(tense + 2, tense == 0 ? indicative : tense == ConjugationProcessor.TENSE_COUNT - 1 ? imperative
+                    : "null|null|null|null|null|null");
+        }
+        ps.executeUpdate();
+    }
+
+    private static void checkLookups(DictionaryReader reader, Map<String, String> words, boolean foldAccents) throws Exception {
+        for (Map.Entry<String, String> word : words.entrySet()) {
+            checkLookup(reader, words, word.getKey());
+        }
+        for (String name : new String[] {"CHAT", "ÉTÉ", "Parler", "missing", ""}) {
+            checkLookup(reader, words, name);
+        }
+
+        for (String prefix : new String[] {"cha", "CHA", "ete", "été", "Ét", "oeu", "mot1", "mot19", "v", "zzz"}) {
+            for (int limit : new int[] {1, 3, 20}) {
+                checkPrefix(reader, words, prefix, limit, foldAccents);
+            }
+        }
+        check(reader.prefix("mot", 5000).size() == 1000, "prefix() isn't capped at 1000 names");
+        check(reader.prefix("", 20).isEmpty() && reader.prefix("mot", 0).isEmpty(), "prefix() with no prefix or no limit isn't empty");
+
+        DictionaryReader.Conjugation parler = reader.conjugation("parler");
+        check(parler != null && parler.name.equals("parler"), "no conjugation for parler");
+        check(Arrays.equals(parler.forms(0, 3), new String[] {"parlons"}), "parler: nous " + Arrays.toString(parler.forms(0, 3)));
+        check(parler.forms(1, 0).length == 0, "parler: a missing form " + Arrays.toString(parler.forms(1, 0)));
+        check(parler.forms(ConjugationProcessor.TENSE_COUNT - 1, 0).length == 0
+                && Arrays.equals(parler.forms(ConjugationProcessor.TENSE_COUNT - 1, 1), new String[] {"parle"}), "parler: imperative");
+        DictionaryReader.Conjugation payer = reader.conjugation("payer");
+        check(payer != null && Arrays.equals(payer.forms(0, 0), new String[] {"paye", "paie"}),
+                "payer: je " + (payer == null ? null : Arrays.toString(payer.forms(0, 0))));
+        check(reader.conjugation("chat") == null && reader.conjugation("Parler") == null, "a conjugation for a word without one");
+    }
+
+    private static void checkLookup(DictionaryReader reader, Map<String, String> words, String name) throws Exception {
+        DictionaryReader.Entry entry = reader.lookup(name);
+        String expected = words.get(name);
+        check(expected == null ? entry == null : entry != null && entry.name.equals(name) && expected.equals(entry.definition),
+                "lookup(\"" + name + "\") gave " + describe(entry));
+
+        Set<String> expectedNames = namesIgnoringCase.getOrDefault(asciiLowerCase(name), Collections.emptySet());
+        List<DictionaryReader.Entry> entries = reader.lookupIgnoreCase(name);
+        Set<String> names = new HashSet<>();
+        for (DictionaryReader.Entry e : entries) {
+            names.add(e.name);
+            check(words.get(e.name).equals(e.definition), "lookupIgnoreCase(\"" + name + "\") gave " + describe(e));
+        }
+        check(names.equals(expectedNames) && entries.size() == names.size(),
+                "lookupIgnoreCase(\"" + name + "\") gave " + names + " instead of " + expectedNames);
+    }
+
+    /**
+     * The names must be the first ones in key order, ties in any order
+     */
+    private static void checkPrefix(DictionaryReader reader, Map<String, String> words, String prefix, int limit,
+                                    boolean foldAccents) throws Exception {
+        Function<String, String> key = foldAccents ? SearchIndex::foldKey : DictionaryReaderCheck::asciiLowerCase;
+        List<String> expectedKeys = words.keySet().stream()
+                .map(key)
+                .filter(k -> k.startsWith(key.apply(prefix)))
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList());
+        List<String> names = reader.prefix(prefix, limit);
+        List<String> keys = names.stream().map(key).collect(Collectors.toList());
+        check(keys.equals(expectedKeys) && names.stream().allMatch(words::containsKey),
+                "prefix(\"" + prefix + "\", " + limit + ") gave " + names + ", keys " + keys + " instead of " + expectedKeys);
+    }
+
+    private static void checkConcurrentLookups(DictionaryReader reader, Map<String, String> words, boolean foldAccents) throws Exception {
+        List<String> names = new ArrayList<>(words.keySet());
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long seed = t;
+                futures.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                        // a few hot words, found in the cache, and the others, that keep evicting each other
+                        String name = random.nextBoolean() ? names.get(random.nextInt(10)) : names.get(random.nextInt(names.size()));
+                        switch (i % 4) {
+                            case 0:
+                            case 1:
+                                checkLookup(reader, words, name);
+                                break;
+                            case 2:
+                                checkLookup(reader, words, name + "x");
+                                break;
+                            default:
+                                checkPrefix(reader, words, name.substring(0, Math.min(name.length(), 4)), 1 + random.nextInt(20), foldAccents);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void checkServer(DictionaryReader reader) throws Exception {
+        HttpServer server = DictionaryReader.serve(reader, 0, 4);
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            HttpClient client = HttpClient.newHttpClient();
+            checkGet(client, base + "/word?q=chat", 200, "{\"name\":\"chat\",\"definition\":\"<ol>\\n <li>cat</li>\\n</ol>\"}");
+            checkGet(client, base + "/word?q=vide", 200, "{\"name\":\"vide\",\"definition\":\"\"}");
+            checkGet(client, base + "/word?q=" + encode("été"), 200, "{\"name\":\"été\",\"definition\":\"<ol>\\n <li>summer</li>\\n</ol>\"}");
+            checkGet(client, base + "/word?q=citation", 200,
+                    "{\"name\":\"citation\",\"definition\":\"<p>« \\\"quoted\\\" » \\\\ and\\ta tab</p>\"}");
+            checkGet(client, base + "/word?q=missing", 200, "null");
+            checkGet(client, base + "/search?q=CHAT", 200, null);
+            checkGet(client, base + "/prefix?q=mot19&limit=3", 200, "[\"mot19\",\"mot190\",\"mot1900\"]");
+            checkGet(client, base + "/prefix?q=zzz", 200, "[]");
+            checkGet(client, base + "/conjugation?q=payer", 200, null);
+            checkGet(client, base + "/conjugation?q=chat", 200, "null");
+            checkGet(client, base + "/word", 400, "{\"error\":\"missing q\"}");
+            checkGet(client, base + "/prefix?q=mot&limit=ten", 400, "{\"error\":\"bad limit\"}");
+
+            String search = get(client, base + "/search?q=CHAT").body();
+            check(search.startsWith("[{") && search.contains("\"name\":\"chat\"") && search.contains("\"name\":\"Chat\""),
+                    "/search?q=CHAT gave " + search);
+            String conjugation = get(client, base + "/conjugation?q=payer").body();
+            check(conjugation.startsWith("{\"name\":\"payer\",\"presentIndicatif\":[[\"paye\",\"paie\"],[\"payes\",\"paies\"],")
+                    && conjugation.contains("\"imparfaitIndicatif\":[[],[],[],[],[],[]]")
+                    && conjugation.endsWith("\"imperatif\":[[],[\"paye\",\"paie\"],[],[\"payons\"],[\"payez\"],[]]}"),
+                    "/conjugation?q=payer gave " + conjugation);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * @param expectedBody null to only check the status
+     */
+    private static void checkGet(HttpClient client, String url, int expectedStatus, String expectedBody) throws Exception {
+        HttpResponse<String> response = get(client, url);
+        check(response.statusCode() == expectedStatus, url + " gave HTTP " + response.statusCode() + ": " + response.body());
+        check(response.headers().firstValue("Content-Type").orElse("").startsWith("application/json"),
+                url + " isn't JSON: " + response.headers().firstValue("Content-Type"));
+        check(expectedBody == null || expectedBody.equals(response.body()), url + " gave\n" + response.body() + "\ninstead of\n" + expectedBody);
+    }
+
+    private static HttpResponse<String> get(HttpClient client, String url) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String encode(String s) throws Exception {
+        return URLEncoder.encode(s, "UTF-8");
+    }
+
+    private static String asciiLowerCase(String s) {
+        StringBuilder sb = new StringBuilder(s);
+        for (int i = 0; i < sb.length(); i++) {
+            if (sb.charAt(i) >= 'A' && sb.charAt(i) <= 'Z') {
+                sb.setCharAt(i, (char) (sb.charAt(i) + 'a' - 'A'));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String describe(DictionaryReader.Entry entry) {
+        return entry == null ? "null" : entry.name + ": \"" + entry.definition + "\"";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("DictionaryReaderCheck failed: " + message);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A page found by the PageScanner in the xml dump
+ */
+public class DumpPage {
+    final String title;
+    final int ns;
+    final long revision;
+    final String timestamp;
+
+    // the languages the page has a header for, in the order they were given to the scanner
+    final List<String> languages;
+
+    // wikitext of each language section by language, only set when the scanner extracts sections
+    final Map<String, String> sections;
+
+    DumpPage(String title, int ns, long revision, String timestamp, List<String> languages, Map<String, String> sections) {
+        this.title = title;
+        this.ns = ns;
+        this.revision = revision;
+        this.timestamp = timestamp;
+        this.languages = languages;
+        this.sections = sections;
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Run a task for each word (or batch of words), with a bounded number of tasks in flight. Instead
+ * of splitting the words into one fixed chunk per thread, each word is started as soon as a slot
+ * frees up, so a few slow pages don't leave the other slots idle at the end of an iteration.
+ * A task that throws stops the run: no task is started after it, and runAll() rethrows the exception.
+ */
+public class FetchExecutor<T> {
+    private final ExecutorService executor = newExecutor();
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final Consumer<T> task;
+    private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+    public FetchExecutor(int maxConcurrency, Consumer<T> task) {
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        this.task = task;
+    }
+
+    /**
+     * Run the task for all the words and wait for them to complete
+     * @throws RuntimeException The first exception thrown by a task, once the tasks in flight are done
+     */
+    public void runAll(Iterable<T> words) throws InterruptedException {
+        for (T word : words) {
+            permits.acquire();
+            if (error.get() != null) {
+                permits.release();
+                break;
+            }
+            executor.execute(() -> {
+                try {
+                    task.accept(word);
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        // all permits are back once the last task is done
+        permits.acquire(maxConcurrency);
+        permits.release(maxConcurrency);
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static ExecutorService newExecutor() {
+        // one virtual thread per task where available (Java 21+), the concurrency is limited by the semaphore anyway
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Check FetchExecutor against a local stub server, run as a program:
+ *   java FetchExecutorCheck
+ * - a few slow pages at the start of the list, which used to all land in the first thread's chunk,
+ *   no longer decide how long the iteration takes, and the requests in flight stay at the limit
+ * - 429 and 503 responses cut the rate in half, and a Retry-After pauses all the requests
+ * Exits with an error if any of these doesn't hold.
+ */
+public class FetchExecutorCheck {
+    private static final int CONCURRENCY = 8;
+    private static final int WORDS = 200;
+    private static final int SLOW_WORDS = 8;
+    private static final long SLOW_MILLIS = 300;
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicInteger maxInFlight = new AtomicInteger();
+    private static final ConcurrentLinkedQueue<Long> requestTimes = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong retryAfterSentAt = new AtomicLong();
+
+    public static void main(String argv[]) throws Exception {
+        // otherwise every response waits for a delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", FetchExecutorCheck::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/page?w=";
+        HttpTransport transport = new HttpTransport(Duration.ofSeconds(10));
+        try {
+            checkTailLatency(transport, url);
+            checkThrottling(transport, url);
+            System.out.println("FetchExecutorCheck: OK");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            server.stop(0);
+        }
+        System.exit(0);     // the HTTP client's threads would keep the JVM alive for a while
+    }
+
+    private static void checkTailLatency(HttpTransport transport, String url) throws Exception {
+        // the slow words come first, so that they all fall into the first chunk of a static split
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < WORDS; i++) {
+            words.add(i < SLOW_WORDS ? "slow" + i : "word" + i);
+        }
+
+        long start = System.nanoTime();
+        staticChunks(words, w -> fetch(transport, url + w, null));
+        long staticMillis = millisSince(start);
+
+        maxInFlight.set(0);
+        start = System.nanoTime();
+        FetchExecutor<String> executor = new FetchExecutor<>(CONCURRENCY, w -> fetch(transport, url + w, null));
+        executor.runAll(words);
+        long executorMillis = millisSince(start);
+        executor.shutdown();
+
+        System.out.println("Iteration with " + SLOW_WORDS + " pages of " + SLOW_MILLIS + " ms: " + staticMillis
+                + " ms with static chunks, " + executorMillis + " ms with FetchExecutor, up to " + maxInFlight.get() + " in flight.");
+        check(staticMillis >= SLOW_WORDS * SLOW_MILLIS, "the static chunks should wait for all the slow pages in a row");
+        check(executorMillis < staticMillis / 2, "FetchExecutor took " + executorMillis + " ms, static chunks " + staticMillis + " ms");
+        check(maxInFlight.get() == CONCURRENCY, "up to " + maxInFlight.get() + " requests in flight instead of " + CONCURRENCY);
+    }
+
+    private static void checkThrottling(HttpTransport transport, String url) throws Exception {
+        RateController rateController = new RateController(50, 1, 1000, 1);
+        AtomicInteger throttled = new AtomicInteger();
+        List<Double> ratesAfterThrottle = Collections.synchronizedList(new ArrayList<>());
+
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // one 503, and one 429 with a Retry-After a bit later
+            words.add(i == 10 ? "unavailable" : i == 40 ? "retryafter" : "word" + i);
+        }
+        requestTimes.clear();
+        double initialRate = rateController.getRate();
+        FetchExecutor<String> executor = new FetchExecutor<>(CONCURRENCY, w -> {
+            try {
+                rateController.acquire();
+                long start = System.nanoTime();
+                int status = fetch(transport, url + w, rateController);
+                if (status == 429 || status == 503) {
+                    throttled.incrementAndGet();
+                    ratesAfterThrottle.add(rateController.getRate());
+                }
+                else {
+                    rateController.onSuccess(System.nanoTime() - start);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.runAll(words);
+        executor.shutdown();
+
+        check(throttled.get() == 2, throttled.get() + " throttled responses instead of 2");
+        check(ratesAfterThrottle.get(0) <= initialRate * 0.75, "the rate wasn't cut after a 503: " + ratesAfterThrottle);
+
+        // the requests already sent when the 429 came back may still arrive, but none started after it
+        long pauseStart = retryAfterSentAt.get() + TimeUnit.MILLISECONDS.toNanos(100);
+        long pauseEnd = retryAfterSentAt.get() + TimeUnit.SECONDS.toNanos(RETRY_AFTER_SECONDS) - TimeUnit.MILLISECONDS.toNanos(50);
+        int duringPause = 0;
+        for (long time : requestTimes) {
+            if (time > pauseStart && time < pauseEnd) {
+                duringPause++;
+            }
+        }
+        check(duringPause == 0, duringPause + " requests were sent during the Retry-After pause");
+        System.out.println(String.format("Throttling: rate %.1f/s, then %.1f/s after the 503 and %.1f/s after the 429, "
+                + "no request during the %d s Retry-After.", initialRate, ratesAfterThrottle.get(0), ratesAfterThrottle.get(1), RETRY_AFTER_SECONDS));
+    }
+
+    /**
+     * What doWork used to do: one thread per static chunk of the list
+     */
+    private static void staticChunks(List<String> words, Consumer<String> task) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        int chunkSize = (words.size() + CONCURRENCY - 1) / CONCURRENCY;
+        for (int i = 0; i < words.size(); i += chunkSize) {
+            List<String> chunk = words.subList(i, Math.min(words.size(), i + chunkSize));
+            Thread thread = new Thread(() -> chunk.forEach(task));
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * @param rateController Told about the throttled responses, if not null
+     * @return The status of the response
+     */
+    private static int fetch(HttpTransport transport, String url, RateController rateController) {
+        try (HttpTransport.Response response = transport.get(url, Collections.emptyMap())) {
+            response.bodyAsBytes();
+            if (rateController != null && (response.status == 429 || response.status == 503)) {
+                rateController.onThrottled(RateController.parseRetryAfter(response.header("Retry-After")));
+            }
+            return response.status;
+        } catch (IOException e) {
+            throw new IllegalStateException("Request to the stub server failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        String word = exchange.getRequestURI().getQuery().substring(2);
+        requestTimes.add(System.nanoTime());
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            int status = 200;
+            if (word.startsWith("slow")) {
+                Thread.sleep(SLOW_MILLIS);
+            }
+            else if (word.equals("unavailable")) {
+                status = 503;
+            }
+            else if (word.equals("retryafter")) {
+                status = 429;
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+                retryAfterSentAt.set(System.nanoTime());
+            }
+            else {
+                Thread.sleep(5);
+            }
+
+            byte[] body = ("<html><body><div id=\"mw-content-text\">" + word + "</div></body></html>").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("FetchExecutorCheck failed: " + message);
+        }
+    }
+}
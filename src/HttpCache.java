@@ -0,0 +1,130 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of the fetched pages, keyed by title. The bodies are stored gzipped along with
+ * their ETag and Last-Modified headers. Fresh entries can be used without touching the network,
+ * and stale ones revalidated with a conditional GET, which costs no body transfer (HTTP 304)
+ * when the page hasn't changed.
+ */
+public class HttpCache {
+    private static final int VERSION = 1;
+
+    public static class Entry {
+        final String body;
+        final String etag;
+        final String lastModified;
+        final long fetchedAt;
+
+        Entry(String body, String etag, String lastModified, long fetchedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final Path dir;
+    private final long maxAgeMillis;
+
+    /**
+     * @param dir Directory to keep the cache in
+     * @param maxAgeHours How long an entry can be used before it has to be revalidated
+     */
+    public HttpCache(String dir, long maxAgeHours) throws IOException {
+        this.dir = Paths.get(dir);
+        this.maxAgeMillis = TimeUnit.HOURS.toMillis(maxAgeHours);
+        Files.createDirectories(this.dir);
+    }
+
+    /**
+     * @return The cached entry for the key, or null if there's none
+     */
+    public Entry get(String key) throws IOException {
+        try (InputStream file = Files.newInputStream(path(key));
+             DataInputStream in = new DataInputStream(new GZIPInputStream(file))) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            long fetchedAt = in.readLong();
+            String etag = readNullable(in);
+            String lastModified = readNullable(in);
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(new String(body, StandardCharsets.UTF_8), etag, lastModified, fetchedAt);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.fetchedAt < maxAgeMillis;
+    }
+
+    public void put(String key, String body, String etag, String lastModified) throws IOException {
+        Path path = path(key);
+        Files.createDirectories(path.getParent());
+
+        // write to a temporary file first, so that a crash never leaves a truncated entry behind
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (OutputStream file = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new GZIPOutputStream(file))) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            writeNullable(out, etag);
+            writeNullable(out, lastModified);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Mark an entry as fresh again, after the server confirmed it hasn't changed
+     */
+    public void revalidated(String key, Entry entry) throws IOException {
+        put(key, entry.body, entry.etag, entry.lastModified);
+    }
+
+    private Path path(String key) {
+        // titles can contain characters that aren't allowed in file names, so use a hash instead
+        String hash;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            hash = sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return dir.resolve(hash.substring(0, 2)).resolve(hash + ".gz");
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jsoup.nodes.Document;
+
+/**
+ * Check the page cache of WiktionaryDumper.fetchPage() against a local stub server that counts the
+ * requests, run as a program:
+ *   java HttpCacheCheck
+ * - a fresh entry is used without any request
+ * - a stale entry is revalidated with If-None-Match or If-Modified-Since, and a 304 transfers no body
+ * - a page that changed is downloaded again, and the cache updated
+ * Exits with an error if any of these doesn't hold.
+ */
+public class HttpCacheCheck {
+    private static final Map<String, String[]> pages = new ConcurrentHashMap<>();     // body, ETag, Last-Modified
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final AtomicInteger conditionalRequests = new AtomicInteger();
+    private static final AtomicInteger notModified = new AtomicInteger();
+    private static final AtomicInteger bodyBytes = new AtomicInteger();
+
+    public static void main(String argv[]) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/w/index.php", HttpCacheCheck::handle);
+        server.start();
+        // read when WiktionaryDumper is loaded, so before it's used
+        System.setProperty("pageUrl", "http://127.0.0.1:" + server.getAddress().getPort() + "/w/index.php");
+        Path dir = Files.createTempDirectory("http_cache_check");
+        try {
+            check(dir);
+            System.out.println("HttpCacheCheck: OK");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            server.stop(0);
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.exit(0);     // the HTTP client's threads would keep the JVM alive for a while
+    }
+
+    private static void check(Path dir) throws Exception {
+        pages.put("chat", new String[] {page("chat", "cat"), "\"v1\"", null});
+        pages.put("été", new String[] {page("été", "summer"), null, "Mon, 02 Jan 2017 00:00:00 GMT"});
+
+        // first fetch, nothing cached
+        WiktionaryDumper.httpCache = new HttpCache(dir.toString(), 1);
+        check(definition("chat").equals("cat") && definition("été").equals("summer"), "wrong pages on the first fetch");
+        check(requests.get() == 2 && conditionalRequests.get() == 0, requests + " requests for 2 uncached pages");
+
+        // fresh, from the disk only
+        check(definition("chat").equals("cat") && definition("été").equals("summer"), "wrong pages from the cache");
+        check(requests.get() == 2, (requests.get() - 2) + " requests for pages that are fresh in the cache");
+
+        // stale but unchanged, by ETag and by Last-Modified
+        WiktionaryDumper.httpCache = new HttpCache(dir.toString(), 0);
+        int bytesBefore = bodyBytes.get();
+        check(definition("chat").equals("cat") && definition("été").equals("summer"), "wrong pages after revalidation");
+        check(requests.get() == 4 && conditionalRequests.get() == 2, "stale pages weren't revalidated with conditional requests");
+        check(notModified.get() == 2 && bodyBytes.get() == bytesBefore, "a body was transferred for unchanged pages");
+
+        // stale and changed
+        pages.put("chat", new String[] {page("chat", "cat, tomcat"), "\"v2\"", null});
+        check(definition("chat").equals("cat, tomcat"), "the page that changed wasn't downloaded again");
+        check(notModified.get() == 2 && bodyBytes.get() > bytesBefore, "the page that changed got a 304");
+        HttpCache.Entry entry = WiktionaryDumper.httpCache.get("chat");
+        check(entry.body.contains("tomcat") && entry.etag.equals("\"v2\""), "the cache wasn't updated with the new page");
+
+        System.out.println(requests + " requests for 7 fetches, " + conditionalRequests + " conditional, " + notModified
+                + " answered 304, " + bodyBytes + " bytes of body (gzipped).");
+    }
+
+    private static String definition(String word) throws Exception {
+        Document doc = WiktionaryDumper.fetchPage(word);
+        return doc.select("#mw-content-text p").text();
+    }
+
+    private static String page(String title, String definition) {
+        return "<html><head><title>" + title + "</title></head><body><div id=\"mw-content-text\">"
+                + "<h2>French</h2><p>" + definition + "</p></div></body></html>";
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String query = exchange.getRequestURI().getRawQuery();
+        String title = URLDecoder.decode(query.substring("title=".length(), query.indexOf('&')), "UTF-8");
+        String[] page = pages.get(title);
+        if (page == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ifNoneMatch != null || ifModifiedSince != null) {
+            conditionalRequests.incrementAndGet();
+            if (page[1] != null ? page[1].equals(ifNoneMatch) : page[2].equals(ifModifiedSince)) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(page[0].getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] body = gzipped.toByteArray();
+        bodyBytes.addAndGet(body.length);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        if (page[1] != null) {
+            exchange.getResponseHeaders().set("ETag", page[1]);
+        }
+        if (page[2] != null) {
+            exchange.getResponseHeaders().set("Last-Modified", page[2]);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("HttpCacheCheck failed: " + message);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Shared HTTP client for all the requests sent to Wiktionary. Connections are kept alive and
+ * reused, over HTTP/2 when the server supports it so that the concurrent requests are multiplexed
+ * on a single connection. Responses are transferred compressed, and their body is handed over as a
+ * stream that is decompressed as it's read, without buffering the whole response first.
+ */
+public class HttpTransport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    // Wikimedia's User-Agent policy asks for a way to reach whoever runs the tool, an email or a url
+    static final String CONTACT = System.getProperty("contact", "").trim();
+    private static final String USER_AGENT = "EnFrWiktionaryDumper/1.0" + (CONTACT.isEmpty() ? "" : " (" + CONTACT + ")")
+            + " java.net.http/" + System.getProperty("java.version");
+
+    public static class Response implements Closeable {
+        final int status;
+        final InputStream body;
+        private final HttpHeaders headers;
+
+        Response(int status, HttpHeaders headers, InputStream body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * @return The first value of the header, or null if there's none
+         */
+        public String header(String name) {
+            return headers.firstValue(name).orElse(null);
+        }
+
+        /**
+         * @return The charset given in the Content-Type header, UTF-8 if there's none
+         */
+        public Charset charset() {
+            String contentType = header("Content-Type");
+            if (contentType != null) {
+                for (String param : contentType.split(";")) {
+                    param = param.trim();
+                    if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                        try {
+                            return Charset.forName(param.substring(8).replace("\"", "").trim());
+                        } catch (IllegalArgumentException e) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return StandardCharsets.UTF_8;
+        }
+
+        public byte[] bodyAsBytes() throws IOException {
+            return body.readAllBytes();
+        }
+
+        /**
+         * Release the connection. Has to be called even if the body isn't read.
+         */
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+
+    /**
+     * @param requestTimeout How long to wait for the response headers of a request
+     */
+    public HttpTransport(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    /**
+     * @param headers Additional request headers
+     */
+    public Response get(String url, Map<String, String> headers) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).GET();
+        headers.forEach(request::header);
+        return send(request);
+    }
+
+    /**
+     * Post the form url-encoded
+     */
+    public Response postForm(String url, Map<String, String> form) throws IOException, InterruptedException {
+        StringJoiner body = new StringJoiner("&");
+        for (Map.Entry<String, String> field : form.entrySet()) {
+            body.add(encode(field.getKey()) + "=" + encode(field.getValue()));
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()));
+        return send(request);
+    }
+
+    private Response send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        // the JDK has no Brotli decoder, so only ask for what we can decompress
+        request.header("Accept-Encoding", "gzip, deflate")
+                .header("User-Agent", USER_AGENT)
+                .timeout(requestTimeout);
+        HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+
+        InputStream body = response.body();
+        int status = response.statusCode();
+        String encoding = status == 204 || status == 304 ? "" : response.headers().firstValue("Content-Encoding").orElse("");
+        try {
+            if (encoding.equalsIgnoreCase("gzip")) {
+                body = new GZIPInputStream(body);
+            }
+            else if (encoding.equalsIgnoreCase("deflate")) {
+                body = new InflaterInputStream(body);
+            }
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+        return new Response(status, response.headers(), body);
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,434 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Scanner for the xml dump that replaces the SAX parser. It works directly on the UTF-8 bytes and
+ * only keeps track of the elements we care about (<title>, <ns>, the revision's <id> and
+ * <timestamp>, and <text>), so no String is created except for the pages that we actually want.
+ * The bytes are pushed in with feed(), and the scanner keeps its state between calls, so a tag or
+ * a language header split across two buffers is still recognized.
+ * Several languages can be looked for in the same pass, each with its own header matcher, and a
+ * page is emitted once with all the languages it has.
+ * Optionally, the wikitext of each language section (up to the next level 2 header) is extracted too.
+ */
+public class PageScanner {
+    private static final int OUTSIDE = 0;
+    private static final int TAG = 1;
+    private static final int TITLE = 2;
+    private static final int NS = 3;
+    private static final int TEXT = 4;
+    private static final int REVISION_ID = 5;
+    private static final int TIMESTAMP = 6;
+
+    // where we are in the text once a language header has been found
+    private static final int SECTION_HEADER_LINE = 0;
+    private static final int SECTION_BODY = 1;
+    private static final int SECTION_DONE = 2;
+
+    private static final byte[] PAGE = bytes("page");
+    private static final byte[] PAGE_END = bytes("/page");
+    private static final byte[] TITLE_TAG = bytes("title");
+    private static final byte[] NS_TAG = bytes("ns");
+    private static final byte[] TEXT_TAG = bytes("text");
+    private static final byte[] REVISION = bytes("revision");
+    private static final byte[] REVISION_END = bytes("/revision");
+    private static final byte[] CONTRIBUTOR = bytes("contributor");
+    private static final byte[] CONTRIBUTOR_END = bytes("/contributor");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] TIMESTAMP_TAG = bytes("timestamp");
+
+    private final Consumer<DumpPage> listener;
+    private final boolean extractSection;
+    private final List<String> languages;
+    private final byte[][] headers;
+    private final int[][] failures;
+
+    private int state = OUTSIDE;
+    private final byte[] tagName = new byte[16];
+    private int tagNameLen;
+    private boolean tagNameDone;
+    private int lastTagByte;
+
+    private byte[] title = new byte[256];
+    private int titleLen;
+    private int ns;
+    private boolean inRevision;
+    private boolean inContributor;
+    private long revision;
+    private final byte[] timestamp = new byte[32];
+    private int timestampLen;
+
+    // per language, in the order of the languages
+    private final int[] headerMatched;
+    private final boolean[] headerFound;
+    private int headersFound;
+    private final int[] sectionState;
+    private final byte[][] section;
+    private final int[] sectionLen;
+
+    /**
+     * @param language The language whose header (e.g. ==French==) a page must contain
+     * @param extractSection Whether to extract the wikitext of the language section
+     * @param listener Called with each page that has the language header
+     */
+    public PageScanner(String language, boolean extractSection, Consumer<DumpPage> listener) {
+        this(Collections.singletonList(language), extractSection, listener);
+    }
+
+    /**
+     * @param languages The languages whose header (e.g. ==French==) a page must contain at least one of
+     * @param extractSection Whether to extract the wikitext of the language sections
+     * @param listener Called with each page that has at least one of the language headers
+     */
+    public PageScanner(List<String> languages, boolean extractSection, Consumer<DumpPage> listener) {
+        this.listener = listener;
+        this.extractSection = extractSection;
+        this.languages = new ArrayList<>(languages);
+        int count = languages.size();
+        headers = new byte[count][];
+        failures = new int[count][];
+        headerMatched = new int[count];
+        headerFound = new boolean[count];
+        sectionState = new int[count];
+        section = new byte[count][];
+        sectionLen = new int[count];
+
+        for (int l = 0; l < count; l++) {
+            byte[] header = bytes("==" + languages.get(l) + "==");
+            headers[l] = header;
+            if (extractSection) {
+                section[l] = new byte[1 << 16];
+            }
+
+            // KMP failure function, so that the header can be matched one byte at a time
+            int[] failure = new int[header.length];
+            for (int i = 1, k = 0; i < header.length; i++) {
+                while (k > 0 && header[i] != header[k]) {
+                    k = failure[k - 1];
+                }
+                if (header[i] == header[k]) {
+                    k++;
+                }
+                failure[i] = k;
+            }
+            failures[l] = failure;
+        }
+    }
+
+    public void scan(InputStream in) throws IOException {
+        byte[] buf = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            feed(buf, 0, n);
+        }
+    }
+
+    public void feed(byte[] buf, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            byte b = buf[i];
+            switch (state) {
+                case OUTSIDE:
+                    if (b == '<') {
+                        startTag();
+                    }
+                    break;
+                case TAG:
+                    tagByte(b);
+                    break;
+                case TITLE:
+                    if (b == '<') {
+                        startTag();
+                    }
+                    else {
+                        if (titleLen == title.length) {
+                            title = grow(title, titleLen);
+                        }
+                        title[titleLen++] = b;
+                    }
+                    break;
+                case REVISION_ID:
+                    if (b == '<') {
+                        startTag();
+                    }
+                    else if (b >= '0' && b <= '9') {
+                        revision = revision * 10 + (b - '0');
+                    }
+                    break;
+                case TIMESTAMP:
+                    if (b == '<') {
+                        startTag();
+                    }
+                    else if (timestampLen < timestamp.length) {
+                        timestamp[timestampLen++] = b;
+                    }
+                    break;
+                case NS:
+                    if (b == '<') {
+                        startTag();
+                    }
+                    else if (b >= '0' && b <= '9') {
+                        ns = ns * 10 + (b - '0');
+                    }
+                    break;
+                case TEXT:
+                    // markup inside the wikitext is escaped, so the first '<' is the closing tag
+                    if (b == '<') {
+                        startTag();
+                    }
+                    else if (extractSection || headersFound < headers.length) {
+                        for (int l = 0; l < headers.length; l++) {
+                            if (!headerFound[l]) {
+                                matchHeader(l, b);
+                            }
+                            else if (extractSection) {
+                                sectionByte(l, b);
+                            }
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void startTag() {
+        state = TAG;
+        tagNameLen = 0;
+        tagNameDone = false;
+        lastTagByte = 0;
+    }
+
+    private void tagByte(byte b) {
+        if (b == '>') {
+            endTag(lastTagByte == '/');
+            return;
+        }
+
+        if (!tagNameDone) {
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || (b == '/' && tagNameLen > 0)) {
+                tagNameDone = true;
+            }
+            else if (tagNameLen < tagName.length) {
+                tagName[tagNameLen++] = b;
+            }
+            else {
+                // longer than anything we're interested in
+                tagNameDone = true;
+                tagNameLen = 0;
+            }
+        }
+        lastTagByte = b;
+    }
+
+    private void endTag(boolean selfClosing) {
+        state = OUTSIDE;
+        if (tagNameIs(PAGE)) {
+            titleLen = 0;
+            ns = 0;
+            revision = 0;
+            timestampLen = 0;
+            Arrays.fill(headerFound, false);
+            headersFound = 0;
+            Arrays.fill(sectionLen, 0);
+        }
+        else if (tagNameIs(PAGE_END)) {
+            if (headersFound > 0) {
+                emit();
+            }
+        }
+        else if (tagNameIs(REVISION)) {
+            inRevision = true;
+        }
+        else if (tagNameIs(REVISION_END)) {
+            inRevision = false;
+        }
+        else if (tagNameIs(CONTRIBUTOR) && !selfClosing) {
+            inContributor = true;
+        }
+        else if (tagNameIs(CONTRIBUTOR_END)) {
+            inContributor = false;
+        }
+        else if (selfClosing) {
+            // e.g. <text bytes="0" />, nothing inside
+        }
+        else if (tagNameIs(TITLE_TAG)) {
+            state = TITLE;
+            titleLen = 0;
+        }
+        else if (tagNameIs(NS_TAG)) {
+            state = NS;
+            ns = 0;
+        }
+        else if (tagNameIs(TEXT_TAG)) {
+            state = TEXT;
+            Arrays.fill(headerMatched, 0);
+        }
+        else if (inRevision && !inContributor && tagNameIs(ID)) {
+            state = REVISION_ID;
+            revision = 0;
+        }
+        else if (inRevision && tagNameIs(TIMESTAMP_TAG)) {
+            state = TIMESTAMP;
+            timestampLen = 0;
+        }
+    }
+
+    private void matchHeader(int l, byte b) {
+        byte[] header = headers[l];
+        int matched = headerMatched[l];
+        while (matched > 0 && b != header[matched]) {
+            matched = failures[l][matched - 1];
+        }
+        if (b == header[matched]) {
+            matched++;
+        }
+        headerMatched[l] = matched;
+        if (matched == header.length) {
+            headerFound[l] = true;
+            headersFound++;
+            sectionState[l] = SECTION_HEADER_LINE;
+        }
+    }
+
+    /**
+     * Collect the text after the header of the language, until the next level 2 header
+     */
+    private void sectionByte(int l, byte b) {
+        switch (sectionState[l]) {
+            case SECTION_HEADER_LINE:
+                if (b == '\n') {
+                    // keep the newline so that a header right on the next line is detected too
+                    sectionState[l] = SECTION_BODY;
+                    section[l][0] = b;
+                    sectionLen[l] = 1;
+                }
+                break;
+            case SECTION_BODY:
+                byte[] text = section[l];
+                int len = sectionLen[l];
+                if (len == text.length) {
+                    text = section[l] = grow(text, len);
+                }
+                text[len++] = b;
+
+                // "\n==" followed by anything but another "=" starts the next language
+                if (len >= 4 && b != '=' && text[len - 2] == '=' && text[len - 3] == '=' && text[len - 4] == '\n') {
+                    len -= 4;
+                    sectionState[l] = SECTION_DONE;
+                }
+                sectionLen[l] = len;
+                break;
+        }
+    }
+
+    private void emit() {
+        // skips things like Template:foo, and no word has ":" in it anyway
+        for (int i = 0; i < titleLen; i++) {
+            if (title[i] == ':') {
+                return;
+            }
+        }
+        List<String> found = new ArrayList<>(headersFound);
+        Map<String, String> sections = extractSection ? new LinkedHashMap<>() : null;
+        for (int l = 0; l < headers.length; l++) {
+            if (!headerFound[l]) {
+                continue;
+            }
+            found.add(languages.get(l));
+            if (extractSection) {
+                String sectionText = unescape(new String(section[l], 0, sectionLen[l], StandardCharsets.UTF_8)).trim();
+
+                // languages used to be separated by a horizontal rule
+                if (sectionText.endsWith("----")) {
+                    sectionText = sectionText.substring(0, sectionText.length() - 4).trim();
+                }
+                sections.put(languages.get(l), sectionText);
+            }
+        }
+        listener.accept(new DumpPage(unescape(new String(title, 0, titleLen, StandardCharsets.UTF_8)), ns, revision,
+                new String(timestamp, 0, timestampLen, StandardCharsets.US_ASCII), found, sections));
+    }
+
+    private boolean tagNameIs(byte[] name) {
+        if (tagNameLen != name.length) {
+            return false;
+        }
+        for (int i = 0; i < tagNameLen; i++) {
+            if (tagName[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode the xml entities in a string taken from the dump
+     */
+    static String unescape(String s) {
+        int amp = s.indexOf('&');
+        if (amp < 0) {
+            return s;
+        }
+
+        StringBuilder sb = new StringBuilder(s.length());
+        sb.append(s, 0, amp);
+        for (int i = amp; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int semi;
+            if (c != '&' || (semi = s.indexOf(';', i)) < 0) {
+                sb.append(c);
+                continue;
+            }
+
+            String entity = s.substring(i + 1, semi);
+            switch (entity) {
+                case "amp":
+                    sb.append('&');
+                    break;
+                case "lt":
+                    sb.append('<');
+                    break;
+                case "gt":
+                    sb.append('>');
+                    break;
+                case "quot":
+                    sb.append('"');
+                    break;
+                case "apos":
+                    sb.append('\'');
+                    break;
+                default:
+                    if (entity.startsWith("#x")) {
+                        sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                    }
+                    else if (entity.startsWith("#")) {
+                        sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                    }
+                    else {
+                        sb.append(c);
+                        continue;
+                    }
+            }
+            i = semi;
+        }
+        return sb.toString();
+    }
+
+    private static byte[] grow(byte[] arr, int len) {
+        byte[] grown = new byte[arr.length * 2];
+        System.arraycopy(arr, 0, grown, 0, len);
+        return grown;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
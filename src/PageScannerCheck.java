@@ -0,0 +1,82 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Check that PageScanner finds the same pages whatever the size of the buffers it's fed, so that a
+ * tag or a language header split across two reads is still recognized:
+ *   java PageScannerCheck
+ * Exits with an error if any chunk size gives a different result than scanning the dump whole.
+ */
+public class PageScannerCheck {
+    private static final List<String> LANGUAGES = Arrays.asList("French", "Spanish");
+
+    public static void main(String argv[]) throws Exception {
+        byte[] dump = dump().getBytes(StandardCharsets.UTF_8);
+
+        List<String> whole = scan(new ByteArrayInputStream(dump));
+        check(whole.equals(Arrays.asList(
+                "chat|0|101|2017-01-01T00:00:00Z|[French]|{French====Noun===\n'''chat''' ''m''}",
+                "été|0|102|2017-01-02T00:00:00Z|[French, Spanish]|{French====Noun===\nsummer, Spanish====Verb===\n''past participle of'' ser}",
+                "hablar|0|104|2017-01-04T00:00:00Z|[Spanish]|{Spanish====Verb===\nto speak}")),
+                "unexpected pages when scanning the dump whole: " + whole);
+
+        // with all the sizes up to 64 bytes, every tag and header ends up split somewhere (7 is enough for most)
+        for (int chunkSize = 1; chunkSize <= 64; chunkSize++) {
+            List<String> chunked = scan(new ChunkedInputStream(dump, chunkSize));
+            check(chunked.equals(whole), "chunks of " + chunkSize + " bytes gave " + chunked);
+        }
+        System.out.println("PageScannerCheck: OK");
+    }
+
+    private static List<String> scan(InputStream in) throws IOException {
+        List<String> pages = new ArrayList<>();
+        new PageScanner(LANGUAGES, true, page -> pages.add(page.title + "|" + page.ns + "|" + page.revision + "|"
+                + page.timestamp + "|" + page.languages + "|" + page.sections)).scan(in);
+        return pages;
+    }
+
+    private static String dump() {
+        return "<mediawiki>\n"
+                + page("chat", 0, 101, "2017-01-01T00:00:00Z", "==French==\n===Noun===\n'''chat''' ''m''\n\n----\n\n==Esperanto==\nkato")
+                + page("été", 0, 102, "2017-01-02T00:00:00Z", "==French==\n===Noun===\nsummer\n\n==Spanish==\n===Verb===\n''past participle of'' ser\n")
+                + page("Wiktionary:French", 4, 103, "2017-01-03T00:00:00Z", "Not a ==Fre nch== header")
+                + page("hablar", 0, 104, "2017-01-04T00:00:00Z", "=French=\n==Spanish==\n===Verb===\nto speak")
+                + page("dog", 0, 105, "2017-01-05T00:00:00Z", "==English==\n==Frenc==\n==FrenchFrench==")
+                + "</mediawiki>\n";
+    }
+
+    private static String page(String title, int ns, long revision, String timestamp, String text) {
+        return "  <page>\n    <title>" + title + "</title>\n    <ns>" + ns + "</ns>\n    <id>" + (revision - 100) + "</id>\n"
+                + "    <revision>\n      <id>" + revision + "</id>\n      <timestamp>" + timestamp + "</timestamp>\n"
+                + "      <contributor>\n        <id>42</id>\n      </contributor>\n"
+                + "      <text xml:space=\"preserve\">" + text + "</text>\n    </revision>\n  </page>\n";
+    }
+
+    /**
+     * Return at most chunkSize bytes per read, like a slow stream would
+     */
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private final int chunkSize;
+
+        ChunkedInputStream(byte[] buf, int chunkSize) {
+            super(buf);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("PageScannerCheck failed: " + message);
+        }
+    }
+}
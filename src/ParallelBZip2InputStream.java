@@ -0,0 +1,265 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decompress a .bz2 file using several threads. A reader thread locates the block boundaries
+ * in the compressed file (blocks start with a 48-bit magic number that is not byte aligned) and
+ * hands each block to a pool of decoders. The decoded blocks are then returned in file order,
+ * so to the consumer this looks like any other sequential InputStream. The magic number can also
+ * occur by chance inside a block, in which case the pieces it cuts the block into don't decode and
+ * are joined back together.
+ * Concatenated streams (as in the "multistream" dumps) are supported.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long EOS_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    // chance matches of a magic number a block can be cut at, far more than the odds allow
+    private static final int MAX_FALSE_MATCHES = 8;
+    private static final Segment END = new Segment(0, null, 0, false, null);
+
+    private final InputStream in;
+    private final ExecutorService decoders;
+    private final BlockingQueue<Segment> segments;
+    private final Thread reader;
+    private volatile IOException readError;
+    private byte[] current = new byte[0];
+    private int currentPos;
+    private boolean ended;  // whether the last segment read is the one after an end of stream magic number
+    private boolean eof;
+
+    /**
+     * @throws IOException If the file doesn't start with a bzip2 stream header
+     */
+    public ParallelBZip2InputStream(String path, int numThread) throws IOException {
+        in = new FileInputStream(path);
+        byte[] header = new byte[4];
+        int n = in.readNBytes(header, 0, 4);
+        if (n < 4 || header[0] != 'B' || header[1] != 'Z' || header[2] != 'h' || header[3] < '1' || header[3] > '9') {
+            in.close();
+            throw new IOException("Not a bzip2 file: " + path);
+        }
+        decoders = Executors.newFixedThreadPool(numThread, r -> {
+            Thread t = new Thread(r, "bzip2-decoder");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // bounded so that the reader can't run too far ahead of the consumer
+        segments = new ArrayBlockingQueue<>(numThread * 2);
+        reader = new Thread(this::readBlocks, "bzip2-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[currentPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        eof = true;
+        reader.interrupt();
+        decoders.shutdownNow();
+        in.close();
+    }
+
+    /**
+     * Make sure there are unread bytes in the current block
+     * @return false if the end of the file has been reached
+     */
+    private boolean fill() throws IOException {
+        while (!eof && currentPos == current.length) {
+            Segment segment = take();
+            if (segment == END) {
+                if (readError != null) {
+                    throw new IOException("Failed to read bzip2 file: " + readError.getMessage(), readError);
+                }
+                if (!ended) {
+                    throw new IOException("Truncated bzip2 file, no end of stream marker");
+                }
+                eof = true;
+                decoders.shutdown();
+            }
+            else if (segment.afterEos) {
+                // the stream CRC, and the header of the next stream if any
+                ended = true;
+            }
+            else {
+                current = decode(segment);
+                currentPos = 0;
+                ended = false;
+            }
+        }
+        return !eof;
+    }
+
+    /**
+     * @return The decompressed block starting at the segment. If the segment doesn't decode, the
+     *         magic number that ends it was a chance match inside the block, so the segment is
+     *         joined with the next ones until it does.
+     */
+    private byte[] decode(Segment segment) throws IOException {
+        Throwable error;
+        try {
+            return segment.decoded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for bzip2 block", e);
+        } catch (ExecutionException e) {
+            error = e.getCause();
+        }
+
+        byte[] data = segment.data;
+        for (int i = 0; i < MAX_FALSE_MATCHES; i++) {
+            Segment next = take();
+            if (next == END) {
+                break;
+            }
+            if (next.decoded != null) {
+                next.decoded.cancel(true);
+            }
+            int offset = (int) (next.startByte - segment.startByte);
+            data = Arrays.copyOf(data, offset + next.data.length);
+            System.arraycopy(next.data, 0, data, offset, next.data.length);
+            try {
+                return new BZip2BlockDecoder(data, segment.bitOffset).decode();
+            } catch (IOException | RuntimeException e) {
+                // still not the whole block
+            }
+        }
+        throw new IOException("Failed to decompress bzip2 file: " + error.getMessage(), error);
+    }
+
+    private Segment take() throws IOException {
+        try {
+            return segments.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for bzip2 block", e);
+        }
+    }
+
+    /**
+     * Scan the compressed file bit by bit for magic numbers, and submit the data between each
+     * block magic number and the next magic number for decoding
+     */
+    private void readBlocks() {
+        try {
+            byte[] buf = new byte[1 << 20];
+            int bufLen = 0;
+            long bufStart = 0;          // absolute offset of buf[0] in the file
+            long segmentStart = -1;     // absolute bit offset right after the last magic number, -1 if none
+            boolean afterEos = false;   // whether the last magic number is the end of stream one
+            long bitPos = 0;
+            long window = 0;
+
+            byte[] chunk = new byte[1 << 16];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                for (int c = 0; c < n; c++) {
+                    int b = chunk[c];
+                    if (bufLen == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    buf[bufLen++] = (byte) b;
+
+                    for (int i = 7; i >= 0; i--) {
+                        window = ((window << 1) | ((b >> i) & 1)) & MAGIC_MASK;
+                        bitPos++;
+
+                        if (window != BLOCK_MAGIC && window != EOS_MAGIC) {
+                            continue;
+                        }
+                        if (segmentStart >= 0) {
+                            submit(buf, bufStart, segmentStart, bitPos, afterEos);
+                        }
+                        segmentStart = bitPos;
+                        afterEos = window == EOS_MAGIC;
+
+                        // drop everything before the new segment
+                        int keep = (int) (segmentStart / 8 - bufStart);
+                        System.arraycopy(buf, keep, buf, 0, bufLen - keep);
+                        bufLen -= keep;
+                        bufStart += keep;
+                    }
+                }
+            }
+
+            // the end of stream segment of a complete file, or what's left of a truncated one
+            if (segmentStart >= 0) {
+                submit(buf, bufStart, segmentStart, bitPos, afterEos);
+            }
+        } catch (InterruptedException e) {
+            // closed by the consumer
+            return;
+        } catch (IOException e) {
+            readError = e;
+        }
+
+        try {
+            segments.put(END);
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        }
+    }
+
+    /**
+     * @param start Absolute bit offset where the segment starts, right after a magic number
+     * @param end Absolute bit offset where the segment ends, right after the next magic number
+     *            (kept so that segments can be joined back), or at the end of the file
+     */
+    private void submit(byte[] buf, long bufStart, long start, long end, boolean afterEos) throws InterruptedException {
+        byte[] data = Arrays.copyOfRange(buf, (int) (start / 8 - bufStart), (int) ((end + 7) / 8 - bufStart));
+        int bitOffset = (int) (start % 8);
+        Future<byte[]> decoded = afterEos ? null : decoders.submit(() -> new BZip2BlockDecoder(data, bitOffset).decode());
+        segments.put(new Segment(start / 8, data, bitOffset, afterEos, decoded));
+    }
+
+    /**
+     * The compressed data between two magic numbers. The magic numbers are found by looking for
+     * their bit pattern, which can also occur by chance inside a block, so a segment after a
+     * block magic number is only a candidate block until it decodes.
+     */
+    private static class Segment {
+        final long startByte;           // absolute offset of data[0] in the file
+        final byte[] data;
+        final int bitOffset;            // offset of the first bit after the magic number in data[0]
+        final boolean afterEos;
+        final Future<byte[]> decoded;   // null after an end of stream magic number
+
+        Segment(long startByte, byte[] data, int bitOffset, boolean afterEos, Future<byte[]> decoded) {
+            this.startByte = startByte;
+            this.data = data;
+            this.bitOffset = bitOffset;
+            this.afterEos = afterEos;
+            this.decoded = decoded;
+        }
+    }
+}
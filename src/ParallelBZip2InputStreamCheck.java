@@ -0,0 +1,132 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Check that ParallelBZip2InputStream gives back what bzip2 compressed, run as a program:
+ *   java ParallelBZip2InputStreamCheck
+ * The files are in fixtures/bzip2 (-Dfixtures=<folder> if not run from the project folder), made
+ * with bzip2 -1 so that they have several blocks:
+ * - pages.xml.bz2, a single stream of the text pages() gives
+ * - multistream.xml.bz2, the same text in three streams, the middle one empty
+ * - false_magic.bz2, the text falseMagic() gives, whose blocks only use bytes that make their symbol
+ *   map read as the block magic number
+ * - truncated.xml.bz2, the first two thirds of pages.xml.bz2, and pages.xml.bz2 without its end of
+ *   stream marker, are errors rather than a shorter text
+ * each with 1 and 4 threads. Exits with an error if any of these doesn't hold.
+ */
+public class ParallelBZip2InputStreamCheck {
+    private static final String FIXTURES = System.getProperty("fixtures", "fixtures");
+    private static final int PAGES = 8000;
+    private static final byte[] ALPHABET = {0x21, 0x23, 0x24, 0x27, 0x2a, 0x2d, 0x2e, 0x31, 0x33, 0x36, 0x37, 0x39,
+            0x3b, 0x3c, 0x3f, 0x70, (byte) 0x90, (byte) 0xf0};
+    private static final int FALSE_MAGIC_SIZE = 250000;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static void main(String argv[]) throws Exception {
+        Path dir = Files.createTempDirectory("bzip2_check");
+        try {
+            File fixtures = new File(FIXTURES, "bzip2");
+            File pages = new File(fixtures, "pages.xml.bz2");
+            byte[] compressed = Files.readAllBytes(pages.toPath());
+            Path noEos = dir.resolve("no_eos.xml.bz2");
+            // the end of stream magic number, the stream CRC and the padding are the last 80 to 87 bits,
+            // in this file the last block ends 3 bits into the 10th byte from the end
+            Files.write(noEos, Arrays.copyOf(compressed, compressed.length - 10));
+
+            for (int threads : new int[] {1, 4}) {
+                checkContent(pages.toString(), threads, pages());
+                checkContent(new File(fixtures, "multistream.xml.bz2").toString(), threads, pages());
+                checkContent(new File(fixtures, "false_magic.bz2").toString(), threads, falseMagic());
+                checkError(new File(fixtures, "truncated.xml.bz2").toString(), threads);
+                checkError(noEos.toString(), threads);
+            }
+
+            try (InputStream in = new ParallelBZip2InputStream(new File(FIXTURES, "api_batch_response.xml").toString(), 1)) {
+                check(false, "a file that isn't bzip2 was opened");
+            } catch (IOException e) {
+                // expected
+            }
+            System.out.println("ParallelBZip2InputStreamCheck: OK");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            for (File file : dir.toFile().listFiles()) {
+                file.delete();
+            }
+            dir.toFile().delete();
+        }
+    }
+
+    private static byte[] pages() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < PAGES; i++) {
+            text.append("<page><title>word").append(i).append("</title></page>\n");
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] falseMagic() {
+        byte[] text = new byte[FALSE_MAGIC_SIZE];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = ALPHABET[(i * 7 + i / 13) % ALPHABET.length];
+        }
+        return text;
+    }
+
+    private static void checkContent(String path, int threads, byte[] expected) throws Exception {
+        byte[] actual = read(path, threads);
+        int diff = Arrays.mismatch(actual, expected);
+        check(diff == -1, path + " with " + threads + " threads gave " + actual.length + " bytes instead of "
+                + expected.length + ", the first difference at " + diff);
+    }
+
+    private static void checkError(String path, int threads) throws Exception {
+        try {
+            byte[] actual = read(path, threads);
+            check(false, path + " with " + threads + " threads gave " + actual.length + " bytes instead of an error");
+        } catch (ExecutionException e) {
+            check(e.getCause() instanceof IOException, path + " with " + threads + " threads failed with " + e.getCause());
+        }
+    }
+
+    /**
+     * @throws ExecutionException With the exception reading the file threw
+     */
+    private static byte[] read(String path, int threads) throws Exception {
+        Future<byte[]> content = executor.submit(() -> {
+            try (InputStream in = new ParallelBZip2InputStream(path, threads)) {
+                return in.readAllBytes();
+            }
+        });
+        try {
+            return content.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("ParallelBZip2InputStreamCheck failed: reading " + path + " with " + threads
+                    + " threads didn't end after " + TIMEOUT_SECONDS + " s", e);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("ParallelBZip2InputStreamCheck failed: " + message);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Scan an uncompressed xml dump with several threads. The file is memory-mapped and split into
+ * byte ranges that each start at a <page> tag, and every range gets its own PageScanner. The pages
+ * are still handed over in dump order: the first range that isn't done yet hands its pages over
+ * as it finds them, and the ranges after it keep theirs until their turn comes.
+ */
+public class ParallelDumpScanner {
+    private static final byte[] PAGE_START = "<page>".getBytes(StandardCharsets.UTF_8);
+
+    // a single mapping can't be bigger than 2 GB
+    private static final long MAX_RANGE_SIZE = 1L << 30;
+
+    // more ranges than threads, taken in order, so that only the few ranges being scanned ahead of
+    // the one handing its pages over keep theirs in memory
+    private static final int RANGES_PER_THREAD = 8;
+
+    /**
+     * Where the pages of the ranges go, so that the listener gets them in dump order and one at a time
+     */
+    private static class OrderedOutput {
+        private final Consumer<DumpPage> listener;
+        private final List<List<DumpPage>> pending = new ArrayList<>();
+        private final boolean[] done;
+        private int current;        // the range whose pages go straight to the listener
+
+        OrderedOutput(int numRange, Consumer<DumpPage> listener) {
+            this.listener = listener;
+            for (int i = 0; i < numRange; i++) {
+                pending.add(new ArrayList<>());
+            }
+            done = new boolean[numRange];
+        }
+
+        synchronized void add(int range, DumpPage page) {
+            if (range == current) {
+                listener.accept(page);
+            }
+            else {
+                pending.get(range).add(page);
+            }
+        }
+
+        synchronized void rangeDone(int range) {
+            done[range] = true;
+            while (current < done.length && done[current]) {
+                current++;
+                if (current < done.length) {
+                    // from now on its pages go straight to the listener
+                    pending.get(current).forEach(listener);
+                    pending.set(current, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the pages that have at least one of the language headers, optionally extracting their language sections.
+     * The pages are handed to the listener in dump order, one at a time but from the scanning threads.
+     */
+    public static void scan(String path, List<String> languages, boolean extractSection, int parallelism,
+            Consumer<DumpPage> listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int numRange = (int) Math.max(parallelism * RANGES_PER_THREAD, size / MAX_RANGE_SIZE + 1);
+
+            long[] bounds = new long[numRange + 1];
+            bounds[numRange] = size;
+            for (int i = 1; i < numRange; i++) {
+                bounds[i] = findPageStart(channel, Math.max(size / numRange * i, bounds[i - 1]));
+            }
+
+            OrderedOutput output = new OrderedOutput(numRange, listener);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (int i = 0; i < numRange; i++) {
+                    int range = i;
+                    long start = bounds[i];
+                    long end = bounds[i + 1];
+                    tasks.add(pool.submit(() -> {
+                        scanRange(channel, start, end, new PageScanner(languages, extractSection, page -> output.add(range, page)));
+                        output.rangeDone(range);
+                    }));
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.join();
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static void scanRange(FileChannel channel, long start, long end, PageScanner scanner) {
+        if (start == end) {
+            return;
+        }
+
+        MappedByteBuffer map;
+        try {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to map dump range " + start + "-" + end, e);
+        }
+
+        byte[] buf = new byte[1 << 16];
+        while (map.hasRemaining()) {
+            int n = Math.min(buf.length, map.remaining());
+            map.get(buf, 0, n);
+            scanner.feed(buf, 0, n);
+        }
+    }
+
+    /**
+     * @return Offset of the first <page> tag at or after the given position, or the file size if there is none
+     */
+    private static long findPageStart(FileChannel channel, long from) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        long pos = from;
+        int matched = 0;
+        while (true) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                // no prefix of "<page>" reappears inside it, so a simple restart is enough
+                byte b = buf.get(i);
+                if (b == PAGE_START[matched]) {
+                    matched++;
+                    if (matched == PAGE_START.length) {
+                        return pos + i + 1 - PAGE_START.length;
+                    }
+                }
+                else {
+                    matched = b == PAGE_START[0] ? 1 : 0;
+                }
+            }
+            pos += n;
+        }
+    }
+}
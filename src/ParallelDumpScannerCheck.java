@@ -0,0 +1,90 @@
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Check that ParallelDumpScanner gives the pages in the same order as a sequential scan of the
+ * dump, run as a program:
+ *   java ParallelDumpScannerCheck
+ * The dump is generated, with pages of random sizes so that the ranges start anywhere, and scanned
+ * with several numbers of threads. The listener must also never be called by two threads at once.
+ * Exits with an error if any scan differs from the sequential one.
+ */
+public class ParallelDumpScannerCheck {
+    private static final List<String> LANGUAGES = Arrays.asList("French", "Spanish");
+    private static final String[] ALL_LANGUAGES = {"English", "French", "Spanish", "German"};
+
+    public static void main(String argv[]) throws Exception {
+        Path dump = Files.createTempFile("parallel_dump_check", ".xml");
+        try {
+            Files.write(dump, dump(3000).getBytes(StandardCharsets.UTF_8));
+
+            List<String> sequential = new ArrayList<>();
+            try (InputStream in = Files.newInputStream(dump)) {
+                new PageScanner(LANGUAGES, true, page -> sequential.add(describe(page))).scan(in);
+            }
+            check(sequential.size() > 1000, "only " + sequential.size() + " pages found");
+
+            for (int parallelism : new int[] {1, 2, 3, 8}) {
+                List<String> parallel = new ArrayList<>();
+                AtomicInteger inListener = new AtomicInteger();
+                AtomicInteger maxInListener = new AtomicInteger();
+                ParallelDumpScanner.scan(dump.toString(), LANGUAGES, true, parallelism, page -> {
+                    maxInListener.accumulateAndGet(inListener.incrementAndGet(), Math::max);
+                    parallel.add(describe(page));
+                    inListener.decrementAndGet();
+                });
+                check(maxInListener.get() == 1, "the listener was called by " + maxInListener.get() + " threads at once");
+                check(parallel.size() == sequential.size(), parallelism + " threads found " + parallel.size()
+                        + " pages instead of " + sequential.size());
+                for (int i = 0; i < parallel.size(); i++) {
+                    check(parallel.get(i).equals(sequential.get(i)), parallelism + " threads, page " + i + " is "
+                            + parallel.get(i) + " instead of " + sequential.get(i));
+                }
+            }
+            System.out.println("ParallelDumpScannerCheck: OK, " + sequential.size() + " pages");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    private static String describe(DumpPage page) {
+        return page.title + "|" + page.revision + "|" + page.languages + "|" + page.sections;
+    }
+
+    private static String dump(int pages) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder("<mediawiki>\n");
+        for (int i = 0; i < pages; i++) {
+            StringBuilder text = new StringBuilder();
+            for (String language : ALL_LANGUAGES) {
+                if (random.nextInt(2) == 0) {
+                    text.append("==").append(language).append("==\n===Noun===\n");
+                    for (int line = random.nextInt(20); line >= 0; line--) {
+                        text.append("# meaning ").append(line).append(" of word").append(i).append('\n');
+                    }
+                }
+            }
+            sb.append("  <page>\n    <title>word").append(i).append("</title>\n    <ns>0</ns>\n    <id>").append(i)
+                    .append("</id>\n    <revision>\n      <id>").append(1000 + i).append("</id>\n")
+                    .append("      <timestamp>2017-01-01T00:00:00Z</timestamp>\n")
+                    .append("      <text xml:space=\"preserve\">").append(text).append("</text>\n    </revision>\n  </page>\n");
+        }
+        return sb.append("</mediawiki>\n").toString();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("ParallelDumpScannerCheck failed: " + message);
+        }
+    }
+}
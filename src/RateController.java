@@ -0,0 +1,136 @@
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive (AIMD) rate limiter for the requests sent to Wiktionary. The allowed rate grows
+ * additively while responses are healthy, and is cut in half as soon as the server signals that
+ * we're going too fast: HTTP 429/503, a timeout, or a response latency well above what we've
+ * seen so far. A Retry-After header pauses all requests for the given time.
+ */
+public class RateController {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double LATENCY_FACTOR = 3;
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double increase;
+
+    private double rate;              // requests per second
+    private long nextSlot;            // System.nanoTime() at which the next request may start
+    private long pauseUntil;
+    private long lastDecrease;
+    private double smoothedLatency;   // ms
+    private double baselineLatency;   // ms, lowest smoothed latency so far
+
+    /**
+     * @param initialRate Requests per second to start with
+     * @param minRate The rate is never cut below this
+     * @param maxRate The rate never grows above this
+     * @param increase By how much the rate grows per second of healthy responses
+     */
+    public RateController(double initialRate, double minRate, double maxRate, double increase) {
+        this.rate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increase = increase;
+        this.nextSlot = System.nanoTime();
+    }
+
+    /**
+     * Wait until the next request is allowed to start
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(Math.max(now, nextSlot), pauseUntil);
+                nextSlot = start + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+                wait = start - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+
+            // a Retry-After that came while waiting applies to this request too, take a slot after it
+            synchronized (this) {
+                if (System.nanoTime() >= pauseUntil) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Report a response that was not throttled
+     * @param latencyNanos Time between sending the request and receiving the response
+     */
+    public synchronized void onSuccess(long latencyNanos) {
+        double latency = latencyNanos / 1e6;
+        smoothedLatency = smoothedLatency == 0 ? latency
+                : smoothedLatency + LATENCY_SMOOTHING * (latency - smoothedLatency);
+        if (baselineLatency == 0 || smoothedLatency < baselineLatency) {
+            baselineLatency = smoothedLatency;
+        }
+
+        if (smoothedLatency > baselineLatency * LATENCY_FACTOR) {
+            // the server is struggling to keep up, back off before it starts refusing us
+            decrease();
+        }
+        else {
+            // one request per response, so this adds about `increase` to the rate every second
+            rate = Math.min(maxRate, rate + increase / rate);
+        }
+    }
+
+    /**
+     * Report a throttled request (HTTP 429/503 or a timeout)
+     * @param retryAfterMillis How long the server asked us to wait, 0 if it didn't say
+     */
+    public synchronized void onThrottled(long retryAfterMillis) {
+        decrease();
+        if (retryAfterMillis > 0) {
+            pauseUntil = Math.max(pauseUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void decrease() {
+        // the requests already in flight will report the same congestion, only count it once
+        long now = System.nanoTime();
+        long window = Math.max(TimeUnit.SECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos((long) smoothedLatency));
+        if (lastDecrease != 0 && now - lastDecrease < window) {
+            return;
+        }
+        lastDecrease = now;
+        rate = Math.max(minRate, rate * DECREASE_FACTOR);
+    }
+
+    /**
+     * @param value Value of a Retry-After header, either a number of seconds or an HTTP date
+     * @return The delay in milliseconds, 0 if there's none or it can't be parsed
+     */
+    public static long parseRetryAfter(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            // not a number of seconds, try the date format
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(), date).toMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+}
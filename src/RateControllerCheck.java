@@ -0,0 +1,187 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check RateController against a local stand-in for Wiktionary that answers 429 above -DserverRate
+ * requests per second (default 40), run as a program:
+ *   java RateControllerCheck
+ * - starting well below it, the rate grows until it finds the server's limit, and then stays
+ *   close to it without being throttled much
+ * - when the server slows down, the rate is cut before any 429
+ * - Retry-After is understood both as seconds and as an HTTP date
+ * Exits with an error if any of these doesn't hold.
+ */
+public class RateControllerCheck {
+    private static final int SERVER_RATE = Integer.getInteger("serverRate", 40);
+    private static final int CONCURRENCY = 16;
+
+    // token bucket of the server, refilled at SERVER_RATE per second
+    private static double tokens;
+    private static long lastRefill = System.nanoTime();
+    private static volatile long serverDelayMillis = 5;
+
+    public static void main(String argv[]) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", RateControllerCheck::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/page";
+        HttpTransport transport = new HttpTransport(Duration.ofSeconds(10));
+        try {
+            checkRetryAfter();
+            checkConvergence(transport, url);
+            checkLatency(transport, url);
+            System.out.println("RateControllerCheck: OK");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            server.stop(0);
+        }
+        System.exit(0);     // the HTTP client's threads would keep the JVM alive for a while
+    }
+
+    private static void checkRetryAfter() {
+        check(RateController.parseRetryAfter("120") == 120000, "Retry-After in seconds");
+        long dateMillis = RateController.parseRetryAfter(
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30)));
+        check(dateMillis > 28000 && dateMillis <= 30000, "Retry-After as a date gave " + dateMillis + " ms");
+        check(RateController.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT") == 0, "Retry-After in the past");
+        check(RateController.parseRetryAfter("soon") == 0 && RateController.parseRetryAfter(null) == 0, "invalid Retry-After");
+    }
+
+    private static void checkConvergence(HttpTransport transport, String url) throws Exception {
+        // grows faster than the default, so that the check doesn't take minutes
+        RateController rateController = new RateController(5, 0.5, 1000, 20);
+        ConcurrentLinkedQueue<long[]> responses = run(transport, url, rateController, TimeUnit.SECONDS.toNanos(8));
+
+        // only the last seconds, once it had the time to find the limit
+        long steadyFrom = System.nanoTime() - TimeUnit.SECONDS.toNanos(4);
+        int ok = 0, throttled = 0, everThrottled = 0;
+        for (long[] response : responses) {
+            everThrottled += response[1] == 429 ? 1 : 0;
+            if (response[0] >= steadyFrom) {
+                ok += response[1] == 200 ? 1 : 0;
+                throttled += response[1] == 429 ? 1 : 0;
+            }
+        }
+        double okRate = ok / 4.0;
+        System.out.println(String.format("Server limit %d/s: %.1f/s served and %.1f/s throttled once settled, rate now %.1f/s.",
+                SERVER_RATE, okRate, throttled / 4.0, rateController.getRate()));
+        check(everThrottled > 0, "the rate never reached the server's limit");
+        check(okRate >= SERVER_RATE * 0.5, "only " + okRate + " requests/s served, the limit is " + SERVER_RATE);
+        check(throttled <= ok * 0.2, throttled + " requests throttled for " + ok + " served");
+    }
+
+    private static void checkLatency(HttpTransport transport, String url) throws Exception {
+        RateController rateController = new RateController(SERVER_RATE / 4.0, 0.5, 1000, 1);
+        run(transport, url, rateController, TimeUnit.SECONDS.toNanos(2));
+        double before = rateController.getRate();
+
+        serverDelayMillis = 100;
+        ConcurrentLinkedQueue<long[]> responses = run(transport, url, rateController, TimeUnit.SECONDS.toNanos(2));
+        serverDelayMillis = 5;
+        double after = rateController.getRate();
+
+        int throttled = 0;
+        for (long[] response : responses) {
+            throttled += response[1] == 429 ? 1 : 0;
+        }
+        System.out.println(String.format("Server slowing down: rate from %.1f/s to %.1f/s, %d throttled.", before, after, throttled));
+        check(throttled == 0, "the server throttled " + throttled + " requests");
+        check(after <= before * 0.5, "the rate wasn't cut when the latency went up");
+    }
+
+    /**
+     * Send requests as fast as the controller allows, for the given time
+     * @return The time and status of each response
+     */
+    private static ConcurrentLinkedQueue<long[]> run(HttpTransport transport, String url, RateController rateController,
+                                                    long durationNanos) throws InterruptedException {
+        ConcurrentLinkedQueue<long[]> responses = new ConcurrentLinkedQueue<>();
+        long end = System.nanoTime() + durationNanos;
+        Iterable<Integer> requests = () -> new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return System.nanoTime() < end;
+            }
+
+            @Override
+            public Integer next() {
+                return 0;
+            }
+        };
+
+        FetchExecutor<Integer> executor = new FetchExecutor<>(CONCURRENCY, i -> {
+            try {
+                rateController.acquire();
+                if (System.nanoTime() >= end) {
+                    return;
+                }
+                long start = System.nanoTime();
+                try (HttpTransport.Response response = transport.get(url, Collections.emptyMap())) {
+                    response.bodyAsBytes();
+                    if (response.status == 429) {
+                        rateController.onThrottled(RateController.parseRetryAfter(response.header("Retry-After")));
+                    }
+                    else {
+                        rateController.onSuccess(System.nanoTime() - start);
+                    }
+                    responses.add(new long[] {System.nanoTime(), response.status});
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Request to the stub server failed", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.runAll(requests);
+        executor.shutdown();
+        return responses;
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        boolean allowed;
+        synchronized (RateControllerCheck.class) {
+            long now = System.nanoTime();
+            tokens = Math.min(SERVER_RATE / 4.0, tokens + (now - lastRefill) / 1e9 * SERVER_RATE);
+            lastRefill = now;
+            allowed = tokens >= 1;
+            if (allowed) {
+                tokens--;
+            }
+        }
+
+        try {
+            Thread.sleep(serverDelayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] body = (allowed ? "<html><body>ok</body></html>" : "Too many requests").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(allowed ? 200 : 429, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("RateControllerCheck failed: " + message);
+        }
+    }
+}
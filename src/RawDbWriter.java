@@ -0,0 +1,308 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer for the raw database. Producers only queue their results, and one thread inserts
+ * them in large batched transactions, committing every BATCH_SIZE rows or every COMMIT_INTERVAL_MS.
+ * The database is a file in WAL mode, so everything committed so far survives a crash.
+ * Along with the words, the Progress table journals which words are done and which failed, in the
+ * same transactions, so that an interrupted run can be resumed from where it stopped.
+ * When refreshing from a previous raw database, the words whose page hasn't changed are copied
+ * from it instead of being fetched again, and the words that are gone are journaled as deleted.
+ * The same writer is used for processed_dict.db in fused mode, with the schema of the processed db
+ * and no journal (see forProcessedDb()).
+ */
+public class RawDbWriter {
+    private static final int BATCH_SIZE = 1000;
+    private static final long COMMIT_INTERVAL_MS = 5000;
+    private static final String STATUS_DONE = "done";
+    private static final String STATUS_FAILED = "failed";
+    private static final String STATUS_UNCHANGED = "unchanged";
+    private static final String STATUS_DELETED = "deleted";
+    private static final Entry END = new Entry(null, null, 0, null, null, 0);
+
+    /**
+     * Thrown when a word is queued to a writer that failed or was closed. The word isn't at fault,
+     * and nothing more can be written.
+     */
+    public static class FailedException extends IllegalStateException {
+        FailedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final String definition;
+        final long revision;
+        final String timestamp;
+        final String status;
+        final long previousRowid;
+
+        Entry(String name, String definition, long revision, String timestamp, String status, long previousRowid) {
+            this.name = name;
+            this.definition = definition;
+            this.revision = revision;
+            this.timestamp = timestamp;
+            this.status = status;
+            this.previousRowid = previousRowid;
+        }
+    }
+
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(10000);
+    private final Connection connection;
+    private final PreparedStatement psInsert;
+    private final PreparedStatement psProgress;
+    private final PreparedStatement psCopy;
+    private final boolean processed;
+    private final Thread thread;
+    private volatile Exception error;
+    private volatile boolean closed;
+
+    /**
+     * @param path The database to write to
+     * @param previousPath A raw database from a previous run to copy unchanged words from, or null
+     */
+    public RawDbWriter(String path, String previousPath) throws SQLException {
+        this(path, previousPath, false);
+    }
+
+    /**
+     * @return A writer to the Word table of a processed db, which only has the name and definition of the
+     * words. The revisions are ignored and failures aren't journaled, such a db can't be resumed.
+     */
+    public static RawDbWriter forProcessedDb(String path) throws SQLException {
+        return new RawDbWriter(path, null, true);
+    }
+
+    private RawDbWriter(String path, String previousPath, boolean processed) throws SQLException {
+        this.processed = processed;
+        connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        Statement stmt = connection.createStatement();
+        if (previousPath != null) {
+            PreparedStatement psAttach = connection.prepareStatement("ATTACH DATABASE ? AS previous");
+            psAttach.setString(1, previousPath);
+            psAttach.execute();
+            psAttach.close();
+        }
+        stmt.execute("PRAGMA journal_mode=WAL");
+        stmt.execute("PRAGMA synchronous=NORMAL");
+        if (processed) {
+            stmt.executeUpdate(WiktionaryProcessor.CREATE_WORD_TABLE);
+        }
+        else {
+            String sql = "CREATE TABLE IF NOT EXISTS Word " +
+                    "( name       TEXT NOT NULL, " +
+                    "  definition TEXT, " +
+                    "  revision   INTEGER, " +
+                    "  timestamp  TEXT) ";
+            stmt.executeUpdate(sql);
+            sql = "CREATE TABLE IF NOT EXISTS Progress " +
+                    "( name     TEXT PRIMARY KEY, " +
+                    "  status   TEXT NOT NULL, " +
+                    "  attempts INTEGER NOT NULL) ";
+            stmt.executeUpdate(sql);
+        }
+        stmt.close();
+
+        connection.setAutoCommit(false);
+        if (processed) {
+            psInsert = connection.prepareStatement("INSERT INTO Word (name, definition) VALUES (?,?)");
+            psProgress = null;
+        }
+        else {
+            psInsert = connection.prepareStatement("INSERT INTO Word (name, definition, revision, timestamp) VALUES (?,?,?,?)");
+            psProgress = connection.prepareStatement("INSERT OR REPLACE INTO Progress (name, status, attempts) " +
+                    "VALUES (?, ?, COALESCE((SELECT attempts FROM Progress WHERE name = ?), 0) + 1)");
+        }
+        psCopy = previousPath == null ? null : connection.prepareStatement("INSERT INTO Word (name, definition, revision, timestamp) " +
+                "SELECT name, definition, revision, timestamp FROM previous.Word WHERE rowid = ?");
+
+        thread = new Thread(this::run, processed ? "processed-db-writer" : "raw-db-writer");
+        thread.start();
+    }
+
+    /**
+     * Queue a word to be written, blocking if the writer is too far behind
+     * @param revision The revision of the page, 0 if unknown
+     * @param timestamp The timestamp of that revision, null if unknown
+     */
+    public void add(String name, String definition, long revision, String timestamp) {
+        put(new Entry(name, definition, revision, timestamp, STATUS_DONE, 0));
+    }
+
+    /**
+     * Journal a word that couldn't be fetched. It will be tried again when the run is resumed.
+     */
+    public void addFailure(String name) {
+        put(new Entry(name, null, 0, null, STATUS_FAILED, 0));
+    }
+
+    /**
+     * Copy a word whose page hasn't changed from the previous database
+     * @param previousRowid The rowid of the word in the previous database
+     */
+    public void addUnchanged(String name, long previousRowid) {
+        put(new Entry(name, null, 0, null, STATUS_UNCHANGED, previousRowid));
+    }
+
+    /**
+     * Journal a word of the previous database whose page is no longer in the dump
+     */
+    public void addDeleted(String name) {
+        put(new Entry(name, null, 0, null, STATUS_DELETED, 0));
+    }
+
+    /**
+     * @return The words that have been written to the database at the given path
+     */
+    public static Set<String> loadDone(String path) throws SQLException {
+        Set<String> done = new HashSet<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path);
+             PreparedStatement ps = conn.prepareStatement("SELECT name FROM Progress WHERE status IN (?, ?)")) {
+            ps.setString(1, STATUS_DONE);
+            ps.setString(2, STATUS_UNCHANGED);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                done.add(rs.getString(1));
+            }
+        }
+        return done;
+    }
+
+    /**
+     * @return For each word in the raw database at the given path, its revision and rowid
+     */
+    public static Map<String, long[]> loadRevisions(String path) throws SQLException {
+        Map<String, long[]> revisions = new ConcurrentHashMap<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path);
+             Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT rowid, name, revision FROM Word");
+            while (rs.next()) {
+                revisions.put(rs.getString(2), new long[] {rs.getLong(3), rs.getLong(1)});
+            }
+        }
+        return revisions;
+    }
+
+    private void executeBatches() throws SQLException {
+        psInsert.executeBatch();
+        if (psCopy != null) {
+            psCopy.executeBatch();
+        }
+        if (psProgress != null) {
+            psProgress.executeBatch();
+        }
+    }
+
+    /**
+     * @throws FailedException If the writer failed or was closed
+     */
+    private void put(Entry entry) {
+        if (error != null) {
+            throw new FailedException("Raw db writer failed", error);
+        }
+        if (closed) {
+            throw new FailedException("Raw db writer closed, " + entry.name + " not written", null);
+        }
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FailedException("Interrupted while queueing " + entry.name, e);
+        }
+    }
+
+    /**
+     * Write everything that is still queued, and close the database
+     */
+    public void close() throws Exception {
+        closed = true;
+        queue.put(END);
+        thread.join();
+        connection.close();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void run() {
+        try {
+            int pending = 0;
+            long deadline = System.currentTimeMillis() + COMMIT_INTERVAL_MS;
+            while (true) {
+                Entry entry = queue.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (entry == END) {
+                    break;
+                }
+
+                if (entry != null) {
+                    if (psProgress != null) {
+                        psProgress.setString(1, entry.name);
+                        psProgress.setString(2, entry.status);
+                        psProgress.setString(3, entry.name);
+                        psProgress.addBatch();
+                    }
+                    pending++;
+                }
+
+                if (entry != null && entry.status == STATUS_UNCHANGED) {
+                    psCopy.setLong(1, entry.previousRowid);
+                    psCopy.addBatch();
+                }
+                else if (entry != null && entry.status == STATUS_DONE && processed) {
+                    psInsert.setString(1, entry.name);
+                    psInsert.setString(2, entry.definition);
+                    psInsert.addBatch();
+                }
+                else if (entry != null && entry.status == STATUS_DONE) {
+                    psInsert.setString(1, entry.name);
+                    psInsert.setString(2, entry.definition);
+                    if (entry.revision != 0) {
+                        psInsert.setLong(3, entry.revision);
+                    }
+                    else {
+                        psInsert.setNull(3, Types.INTEGER);
+                    }
+                    psInsert.setString(4, entry.timestamp);
+                    psInsert.addBatch();
+                }
+
+                if (pending >= BATCH_SIZE || System.currentTimeMillis() >= deadline) {
+                    if (pending > 0) {
+                        executeBatches();
+                        connection.commit();
+                        pending = 0;
+                    }
+                    deadline = System.currentTimeMillis() + COMMIT_INTERVAL_MS;
+                }
+            }
+
+            executeBatches();
+            connection.commit();
+        } catch (Exception e) {
+            error = e;
+
+            // don't leave the producers blocked on a full queue
+            try {
+                while (queue.take() != END) {
+                    // discard
+                }
+            } catch (InterruptedException ignored) {
+                // nothing left to do
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feed the words to the fetch workers in batches, and schedule the ones that failed for another
+ * attempt. Transient failures (network errors, throttling) are put back into the same run after a
+ * jittered exponential backoff, while permanent ones (missing pages, pages that can't be parsed,
+ * words out of attempts) are kept for the report. The iteration ends once the source is exhausted
+ * and no word is in flight or waiting for a retry, or as soon as stop() is called.
+ */
+public class RetryScheduler implements Iterable<List<String>> {
+    private static final long POLL_MILLIS = 100;
+    private static final long BATCH_FILL_MILLIS = 50;
+
+    public enum Failure {
+        TRANSIENT, THROTTLED, NOT_FOUND, PARSER_ERROR;
+
+        boolean isPermanent() {
+            return this == NOT_FOUND || this == PARSER_ERROR;
+        }
+    }
+
+    private static class Retry implements Delayed {
+        final String word;
+        final long due;     // System.nanoTime()
+
+        Retry(String word, long delayMillis) {
+            this.word = word;
+            this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(due, ((Retry) o).due);
+        }
+    }
+
+    private final WordQueue source;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final DelayQueue<Retry> retries = new DelayQueue<>();
+    private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+    private final Map<String, Failure> permanentFailures = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean stopped;
+
+    /**
+     * @param batchSize Maximum number of words handed out at once
+     * @param maxAttempts After that many failed attempts, a word is given up on
+     * @param baseDelayMillis Delay before the first retry, doubled for each following one
+     * @param maxDelayMillis The delay never grows above this
+     */
+    public RetryScheduler(WordQueue source, int batchSize, int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.source = source;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Report a word that has been processed successfully
+     */
+    public void succeeded(String word) {
+        attempts.remove(word);
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Report a word that couldn't be processed, to retry it later or give up on it
+     */
+    public void failed(String word, Failure failure) {
+        int attempt = attempts.merge(word, 1, Integer::sum);
+        if (failure.isPermanent() || attempt >= maxAttempts) {
+            permanentFailures.put(word, failure);
+        }
+        else {
+            long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+            // spread the retries, so that the words that failed together aren't retried together
+            retries.put(new Retry(word, delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1)));
+        }
+
+        // only once the retry is queued, so that the iteration can't end in between
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * End the iteration right away, whatever is left. For when a failure means the run can't go on.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return The number of words waiting for a retry
+     */
+    public int getRetryCount() {
+        return retries.size();
+    }
+
+    /**
+     * @return The number of words that have been given up on
+     */
+    public int getFailureCount() {
+        return permanentFailures.size();
+    }
+
+    /**
+     * Write the words that have been given up on, with why and after how many attempts, one per line
+     * @return The number of words written
+     */
+    public int writeReport(Path path) throws IOException {
+        Map<String, Failure> sorted = new TreeMap<>(permanentFailures);
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Failure> entry : sorted.entrySet()) {
+                out.write(entry.getKey() + "\t" + entry.getValue() + "\t" + attempts.get(entry.getKey()));
+                out.newLine();
+            }
+        }
+        return sorted.size();
+    }
+
+    /**
+     * Can only be iterated once, from a single thread
+     */
+    @Override
+    public Iterator<List<String>> iterator() {
+        return new Iterator<List<String>>() {
+            private String next;
+            private boolean sourceEnded;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null) {
+                        if (stopped) {
+                            return false;
+                        }
+                        Retry retry = retries.poll();
+                        if (retry != null) {
+                            next = retry.word;
+                        }
+                        else if (!sourceEnded) {
+                            next = source.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                            sourceEnded = source.isEnded();
+                        }
+                        else if (inFlight.get() == 0 && retries.isEmpty()) {
+                            return false;
+                        }
+                        else {
+                            retry = retries.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                            next = retry != null ? retry.word : null;
+                        }
+                    }
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for words", e);
+                }
+            }
+
+            @Override
+            public List<String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                List<String> batch = new ArrayList<>(batchSize);
+                batch.add(next);
+                next = null;
+                try {
+                    // fill the batch with whatever is available without waiting long
+                    while (batch.size() < batchSize) {
+                        Retry retry = retries.poll();
+                        String word = retry != null ? retry.word
+                                : sourceEnded ? null : source.poll(BATCH_FILL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (word == null) {
+                            sourceEnded = source.isEnded();
+                            break;
+                        }
+                        batch.add(word);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for words", e);
+                }
+
+                inFlight.addAndGet(batch.size());
+                return batch;
+            }
+        };
+    }
+}
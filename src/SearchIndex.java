@@ -0,0 +1,258 @@
+import org.jsoup.parser.Parser;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.DateFormat;
+import java.text.Normalizer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Search indexes of the processed db, built once all the words are in, so that the app never has
+ * to fall back to a LIKE over the whole Word table:
+ * - search_key, the headword lowercased and accent-folded (é→e, œ→oe), with an index. Exact and
+ *   prefix lookups on it ignore case and accents, and a prefix is a range scan of the index.
+ * - Definition_fts, an FTS5 index of the text of the definitions (html stripped, diacritics
+ *   ignored), for searching inside the definitions. It's contentless, the rowids are the ones of Word.
+ */
+public class SearchIndex {
+    static final String FTS_TABLE = "Definition_fts";
+    static final String PREFIX_SQL = "SELECT name FROM Word WHERE search_key >= ? AND search_key < ? ORDER BY search_key LIMIT ?";
+    static final String FTS_SQL = "SELECT w.name FROM " + FTS_TABLE + " f JOIN Word w ON w.rowid = f.rowid WHERE "
+            + FTS_TABLE + " MATCH ? ORDER BY f.rank LIMIT ?";
+    private static final int BATCH_SIZE = 1000;
+
+    // tags that don't separate words, e.g. <b>mot</b>s
+    private static final Set<String> INLINE_TAGS = new HashSet<>(Arrays.asList(
+            "a", "b", "i", "em", "strong", "span", "sup", "sub", "small", "abbr"));
+
+    /**
+     * Add the search_key column and the full-text index to the Word table
+     */
+    public static void build(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        Statement stmt = connection.createStatement();
+        try {
+            long start = System.nanoTime();
+            buildKeys(connection, stmt);
+            connection.commit();
+            logLine("Built search_key_idx in " + millisSince(start) + " ms.");
+
+            start = System.nanoTime();
+            buildFullText(connection, stmt);
+            connection.commit();
+            logLine("Built " + FTS_TABLE + " in " + millisSince(start) + " ms.");
+        } finally {
+            stmt.close();
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void buildKeys(Connection connection, Statement stmt) throws SQLException {
+        stmt.executeUpdate("ALTER TABLE Word ADD COLUMN search_key TEXT");
+
+        // read everything first, updating the table while going through it is asking for trouble
+        List<Long> rowids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT rowid, name FROM Word")) {
+            while (rs.next()) {
+                rowids.add(rs.getLong(1));
+                names.add(rs.getString(2));
+            }
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement("UPDATE Word SET search_key = ? WHERE rowid = ?")) {
+            for (int i = 0; i < rowids.size(); i++) {
+                ps.setString(1, foldKey(names.get(i)));
+                ps.setLong(2, rowids.get(i));
+                ps.addBatch();
+                if (i % BATCH_SIZE == BATCH_SIZE - 1) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+        stmt.executeUpdate("CREATE INDEX search_key_idx ON Word (search_key)");
+    }
+
+    private static void buildFullText(Connection connection, Statement stmt) throws SQLException {
+        stmt.executeUpdate("CREATE VIRTUAL TABLE " + FTS_TABLE + " USING fts5(definition, content='', "
+                + "tokenize='unicode61 remove_diacritics 1', prefix='2 3')");
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + FTS_TABLE + " (rowid, definition) VALUES (?,?)");
+             ResultSet rs = stmt.executeQuery("SELECT rowid, definition FROM Word WHERE definition IS NOT NULL")) {
+            int count = 0;
+            while (rs.next()) {
+                ps.setLong(1, rs.getLong(1));
+                ps.setString(2, textOf(rs.getString(2)));
+                ps.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+        // merge the b-trees written along the way into one
+        stmt.executeUpdate("INSERT INTO " + FTS_TABLE + " (" + FTS_TABLE + ") VALUES ('optimize')");
+    }
+
+    /**
+     * @return The word lowercased, without accents and with the ligatures spelled out
+     */
+    public static String foldKey(String word) {
+        String lower = word.toLowerCase(Locale.ROOT);
+        boolean ascii = true;
+        for (int i = 0; i < lower.length() && ascii; i++) {
+            ascii = lower.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return lower;
+        }
+
+        StringBuilder sb = new StringBuilder(lower.length() + 4);
+        String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFD);
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            switch (c) {
+                case 'œ':
+                    sb.append("oe");
+                    break;
+                case 'æ':
+                    sb.append("ae");
+                    break;
+                case 'ß':
+                    sb.append("ss");
+                    break;
+                default:
+                    if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param prefix A folded key, not empty
+     * @return The smallest key that is greater than all the keys starting with the prefix
+     */
+    public static String prefixEnd(String prefix) {
+        int last = prefix.codePointBefore(prefix.length());
+        return prefix.substring(0, prefix.length() - Character.charCount(last)) + new String(Character.toChars(last + 1));
+    }
+
+    /**
+     * @return The text of the html, with the tags that separate words turned into spaces
+     */
+    static String textOf(String html) {
+        StringBuilder sb = new StringBuilder(html.length());
+        int i = 0;
+        while (i < html.length()) {
+            int lt = html.indexOf('<', i);
+            int gt = lt < 0 ? -1 : html.indexOf('>', lt);
+            if (gt < 0) {
+                sb.append(html, i, html.length());
+                break;
+            }
+            sb.append(html, i, lt);
+
+            int nameStart = lt + 1 < gt && html.charAt(lt + 1) == '/' ? lt + 2 : lt + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < gt && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            if (!INLINE_TAGS.contains(html.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT))) {
+                sb.append(' ');
+            }
+            i = gt + 1;
+        }
+        return Parser.unescapeEntities(sb.toString(), false);
+    }
+
+    /**
+     * Log how long lookups take with the indexes compared to the LIKE queries they replace
+     * @param samples The number of random words to look up
+     */
+    public static void measure(Connection connection, int samples) throws SQLException {
+        List<String> words = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM Word ORDER BY random() LIMIT " + samples)) {
+            while (rs.next()) {
+                words.add(rs.getString(1));
+            }
+        }
+        if (words.isEmpty()) {
+            return;
+        }
+
+        long likePrefix = 0, keyPrefix = 0, likeText = 0, fullText = 0;
+        try (PreparedStatement psLikePrefix = connection.prepareStatement("SELECT name FROM Word WHERE name LIKE ? ESCAPE '\\' LIMIT 50");
+             PreparedStatement psKeyPrefix = connection.prepareStatement(PREFIX_SQL);
+             PreparedStatement psLikeText = connection.prepareStatement("SELECT name FROM Word WHERE definition LIKE ? ESCAPE '\\' LIMIT 50");
+             PreparedStatement psFullText = connection.prepareStatement(FTS_SQL)) {
+            for (String word : words) {
+                String prefix = word.substring(0, word.offsetByCodePoints(0, Math.min(3, word.codePointCount(0, word.length()))));
+                String key = foldKey(prefix);
+
+                long start = System.nanoTime();
+                psLikePrefix.setString(1, escapeLike(prefix) + "%");
+                drain(psLikePrefix);
+                likePrefix += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                psKeyPrefix.setString(1, key);
+                psKeyPrefix.setString(2, prefixEnd(key));
+                psKeyPrefix.setInt(3, 50);
+                drain(psKeyPrefix);
+                keyPrefix += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                psLikeText.setString(1, "%" + escapeLike(word) + "%");
+                drain(psLikeText);
+                likeText += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                psFullText.setString(1, "\"" + word.replace("\"", "\"\"") + "\"");
+                psFullText.setInt(2, 50);
+                drain(psFullText);
+                fullText += System.nanoTime() - start;
+            }
+        }
+
+        int n = words.size();
+        logLine(String.format("Prefix lookup: %.2f ms with LIKE, %.2f ms with search_key. Definition search: "
+                + "%.2f ms with LIKE, %.2f ms with %s (average of %d words).", likePrefix / 1e6 / n, keyPrefix / 1e6 / n,
+                likeText / 1e6 / n, fullText / 1e6 / n, FTS_TABLE, n));
+    }
+
+    private static String escapeLike(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static void drain(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rs.getString(1);
+            }
+        }
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void logLine(String txt) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + ": " + txt);
+    }
+}
@@ -1,138 +1,361 @@
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Comment;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
 
 /**
- * Dump wiktionary to raw_en-fr_dict.db with minimal processing
+ * Dump wiktionary to raw_en-fr_dict.db with minimal processing, or with -Dfused straight to
+ * processed_dict.db, doing WiktionaryProcessor's work on the fetched pages right away.
+ * With -Dlanguages, several languages are dumped at once, each to its own raw db, and a page that
+ * has several of them is still fetched only once.
  */
 public class WiktionaryDumper {
-    private static List<String> wordList = new ArrayList<>(300000);
-    private static List<String> errorList = new CopyOnWriteArrayList<>();
-    private static PreparedStatement psParms;
+    private static final Map<String, RawDbWriter> rawDbWriters = new HashMap<>();
+    private static RawDbWriter processedDbWriter;
+    private static ConjugationProcessor conjugationProcessor;
+    private static RetryScheduler retryScheduler;
+    static HttpCache httpCache;     // also set by HttpCacheCheck
+    private static FetchExecutor<List<String>> fetchExecutor;
+    private static ApiBatchFetcher apiFetcher;
+    private static final HttpTransport transport = new HttpTransport(Duration.ofSeconds(60));
     private static final AtomicInteger doneCounter = new AtomicInteger();
-    private static final int NUM_THREAD = 8;
-    private static int iteration = 0;
-    private static int totalWords;
+    private static final int MAX_CONCURRENCY = Integer.getInteger("concurrency", 8);
+    private static final RateController rateController = new RateController(
+            Integer.getInteger("initialRate", 5), 0.5, Integer.getInteger("maxRate", 200), 1);
+    private static final boolean OFFLINE = Boolean.getBoolean("offline");
+    private static final boolean RESUME = Boolean.getBoolean("resume");
+    private static final boolean BATCH_API = Boolean.getBoolean("batchApi");
+    private static final String PAGE_URL = System.getProperty("pageUrl", "https://en.wiktionary.org/w/index.php");
+    private static final String API_URL = System.getProperty("apiUrl", "https://en.wiktionary.org/w/api.php");
+    private static final List<String> LANGUAGES = Arrays.asList(System.getProperty("languages", "French").trim().split("\\s*,\\s*"));
+    private static final Map<String, String> LANGUAGE_CODES = new HashMap<>();
+    static {
+        LANGUAGE_CODES.put("French", "fr");
+        LANGUAGE_CODES.put("Spanish", "es");
+        LANGUAGE_CODES.put("German", "de");
+        LANGUAGE_CODES.put("Italian", "it");
+        LANGUAGE_CODES.put("Portuguese", "pt");
+    }
+    private static final boolean FUSED = Boolean.getBoolean("fused");
+    private static final boolean TEE_RAW = Boolean.getBoolean("teeRaw");
+    private static final String PROCESSED_DB = "processed_dict.db";
+    private static final boolean COMPRESS_DEFINITIONS = Boolean.getBoolean("compressDefinitions");
+    private static final boolean BINARY_EXPORT = Boolean.getBoolean("binaryExport");
+    private static final String BINARY_DB = "processed_dict.bin";
+    private static final String PREVIOUS_DB = System.getProperty("previous");
+    private static final String FAILURE_REPORT = "failed_words.tsv";
+    private static final int MAX_ATTEMPTS = Integer.getInteger("maxAttempts", 5);
+    private static final String CACHE_DIR = System.getProperty("cacheDir", "http_cache");
+    private static final int CACHE_MAX_AGE_HOURS = Integer.getInteger("cacheMaxAge", 24 * 7);
+    private static final String DUMP_PATH = "C:\\Users\\tdo\\Downloads\\enwiktionary-20170120-pages-articles.xml";
+    private static final int WORD_QUEUE_SIZE = 10000;
+    private static final AtomicInteger totalWords = new AtomicInteger();
+    private static final AtomicInteger unchangedCounter = new AtomicInteger();
+    private static final Map<String, DumpPage> dumpPages = new ConcurrentHashMap<>();
+    private static final String[] TAG_REWRITES = {"<span>", "", "</span>", "", "<a>", "", "</a>", "",
+            "<strong>", "<b>", "</strong>", "</b>", "<img>", ""};
 
     public static void main (String argv []) throws Exception {
         logLine("Program started.");
 
         Class.forName("org.sqlite.JDBC");
-        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        if (FUSED && (OFFLINE || RESUME || PREVIOUS_DB != null)) {
+            throw new IllegalArgumentException("-Dfused can't be combined with -Doffline, -Dresume or -Dprevious, they work on the raw db");
+        }
+        if (FUSED && !LANGUAGES.equals(Collections.singletonList("French"))) {
+            throw new IllegalArgumentException("-Dfused only works for French, the only language WiktionaryProcessor knows");
+        }
+        if (LANGUAGES.size() > 1 && (RESUME || PREVIOUS_DB != null)) {
+            throw new IllegalArgumentException("-Dresume and -Dprevious only work with a single language");
+        }
+        if (!OFFLINE && HttpTransport.CONTACT.isEmpty()) {
+            throw new IllegalArgumentException("Wikimedia requires a contact in the User-Agent of API clients, "
+                    + "set -Dcontact=<your email or a url about the project>");
+        }
 
-        Statement stmt = connection.createStatement();
-        String sql = "CREATE TABLE Word " +
-                "( name       TEXT NOT NULL, " +
-                "  definition TEXT) ";
-        stmt.executeUpdate(sql);
-
-        psParms = connection.prepareStatement("INSERT INTO Word (name, definition) VALUES (?,?)");
-
-        logLine("Parsing xml dump to get word list.");
-        InputStream xmlInput  = new FileInputStream("C:\\Users\\tdo\\Downloads\\enwiktionary-20170120-pages-articles.xml");
-        SAXParserFactory factory = SAXParserFactory.newInstance();
-        SAXParser saxParser = factory.newSAXParser();
-        SaxHandler handler = new SaxHandler();
-        saxParser.parse(xmlInput, handler);
-        logLine("Parsing completed. Total " + wordList.size() + " words.");
-        totalWords = wordList.size();
-
-        logLine("Getting and processing Wiktionary articles using " + NUM_THREAD + " threads.");
-        Scanner in = new Scanner(System.in);
-        while (!wordList.isEmpty()) {
-            iteration++;
-            doWork();
-
-            if (!wordList.isEmpty()) {
-                System.out.println("Do you want to retry the " + wordList.size() + " words with error? (y/n)");
-                String s = in.next();
-                if (s.equals("n")) {
-                    break;
+        // the database is written as we go, so either pick up where the last run stopped or start from a clean one
+        final Set<String> alreadyDone;
+        String firstRawDb = rawDbName(LANGUAGES.get(0));
+        if (RESUME && Files.exists(Paths.get(firstRawDb))) {
+            alreadyDone = RawDbWriter.loadDone(firstRawDb);
+            doneCounter.set(alreadyDone.size());
+            logLine("Resuming previous run, " + alreadyDone.size() + " words already done.");
+        }
+        else {
+            alreadyDone = Collections.emptySet();
+            for (String language : LANGUAGES) {
+                for (String suffix : new String[] {"", "-wal", "-shm"}) {
+                    Files.deleteIfExists(Paths.get(rawDbName(language) + suffix));
                 }
             }
         }
 
-        System.out.println();
-        logLine("Completed all iterations.");
+        String dumpPath = argv.length > 0 ? argv[0] : DUMP_PATH;
+        if (OFFLINE) {
+            for (String language : LANGUAGES) {
+                rawDbWriters.put(language, new RawDbWriter(rawDbName(language), null));
+            }
 
-        // Dump the database contents to a file
-        stmt.executeUpdate("backup to raw_en-fr_dict.db");
-        stmt.close();
-        connection.close();
-        logLine("Saved to raw_en-fr_dict.db successfully. Everything done.");
+            // everything we need is already in the dump, no need to go through the network
+            logLine("Extracting " + String.join(", ", LANGUAGES) + " sections from the xml dump.");
+            scanDump(dumpPath, true, page -> {
+                if (!alreadyDone.contains(page.title)) {
+                    savePage(page);
+                }
+            });
+            logLine("Extraction completed. Total " + doneCounter.get() + " words.");
+
+            closeRawDbWriters();
+            logLine("Everything done.");
+            return;
+        }
+
+        // for a refresh, only the pages whose revision changed since the previous run need to be fetched
+        final Map<String, long[]> previousRevisions;
+        if (PREVIOUS_DB != null) {
+            if (Paths.get(PREVIOUS_DB).toAbsolutePath().equals(Paths.get(firstRawDb).toAbsolutePath())) {
+                throw new IllegalArgumentException("The previous raw db must be a copy, " + firstRawDb + " is overwritten");
+            }
+            previousRevisions = RawDbWriter.loadRevisions(PREVIOUS_DB);
+            logLine("Loaded " + previousRevisions.size() + " words from the previous raw db " + PREVIOUS_DB + ".");
+        }
+        else {
+            previousRevisions = null;
+        }
+        Connection processedConnection = null;
+        if (FUSED) {
+            for (String suffix : new String[] {"", "-wal", "-shm"}) {
+                Files.deleteIfExists(Paths.get(PROCESSED_DB + suffix));
+            }
+            processedDbWriter = RawDbWriter.forProcessedDb(PROCESSED_DB);
+            processedConnection = DriverManager.getConnection("jdbc:sqlite:" + PROCESSED_DB);
+            conjugationProcessor = new ConjugationProcessor(processedConnection);
+        }
+        if (!FUSED || TEE_RAW) {
+            for (String language : LANGUAGES) {
+                rawDbWriters.put(language, new RawDbWriter(rawDbName(language), PREVIOUS_DB));
+            }
+        }
+        if (!CACHE_DIR.isEmpty()) {
+            httpCache = new HttpCache(CACHE_DIR, CACHE_MAX_AGE_HOURS);
+        }
+
+        logLine("Parsing xml dump to get word list, and getting and processing Wiktionary articles with up to "
+                + MAX_CONCURRENCY + " concurrent requests.");
+        if (BATCH_API) {
+            apiFetcher = new ApiBatchFetcher(API_URL, transport, rateController);
+        }
+        fetchExecutor = new FetchExecutor<>(MAX_CONCURRENCY, WiktionaryDumper::processBatch);
+
+        // the words are fetched as soon as the scanner finds them
+        WordQueue queue = new WordQueue(WORD_QUEUE_SIZE);
+        AtomicReference<Exception> scanError = new AtomicReference<>();
+        Thread scanThread = new Thread(() -> {
+            try {
+                scanDump(dumpPath, false, page -> {
+                    totalWords.incrementAndGet();
+                    if (!copyIfUnchanged(page, previousRevisions, alreadyDone) && !alreadyDone.contains(page.title)) {
+                        dumpPages.put(page.title, page);
+                        queue.put(page.title);
+                    }
+                });
+
+                // whatever is left from the previous run is no longer in the dump
+                if (previousRevisions != null) {
+                    for (String name : previousRevisions.keySet()) {
+                        rawDbWriters.get(LANGUAGES.get(0)).addDeleted(name);
+                    }
+                }
+            } catch (Exception e) {
+                scanError.set(e);
+            } finally {
+                queue.close();
+            }
+        });
+        // if the run is aborted, it may be blocked on a full queue
+        scanThread.setDaemon(true);
+        scanThread.start();
+
+        // failed words are retried along the way, after a delay
+        retryScheduler = new RetryScheduler(queue, BATCH_API ? ApiBatchFetcher.MAX_TITLES : 1, MAX_ATTEMPTS,
+                TimeUnit.SECONDS.toMillis(1), TimeUnit.MINUTES.toMillis(5));
+        try {
+            doWork(retryScheduler);
+        } catch (RuntimeException e) {
+            // a db writer failed. Close the others anyway, so that what they have is kept for -Dresume
+            fetchExecutor.shutdown();
+            List<RawDbWriter> writers = new ArrayList<>(rawDbWriters.values());
+            if (processedDbWriter != null) {
+                writers.add(processedDbWriter);
+            }
+            for (RawDbWriter writer : writers) {
+                try {
+                    writer.close();
+                } catch (Exception closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+        scanThread.join();
+        if (scanError.get() != null) {
+            throw scanError.get();
+        }
+        logLine("Parsing completed. Total " + totalWords.get() + " words.");
+        if (previousRevisions != null) {
+            logLine(unchangedCounter.get() + " words unchanged since the previous run, "
+                    + previousRevisions.size() + " deleted.");
+        }
+
+        fetchExecutor.shutdown();
+        int failed = retryScheduler.writeReport(Paths.get(FAILURE_REPORT));
+        logLine("Completed all words, " + failed + " failed (see " + FAILURE_REPORT + ").");
+
+        closeRawDbWriters();
+        if (FUSED) {
+            processedDbWriter.close();
+            finishProcessedDb(processedConnection);
+            logLine("Saved to " + PROCESSED_DB + " successfully.");
+        }
+        logLine("Everything done.");
     }
 
-    private static void doWork() throws InterruptedException {
-        System.out.println();
-        int size = wordList.size();
-        logLine("Executing iteration " + iteration + ", words left: " + size);
+    /**
+     * @return The raw db of the language, raw_en-fr_dict.db for French
+     */
+    private static String rawDbName(String language) {
+        String code = LANGUAGE_CODES.get(language);
+        return "raw_en-" + (code != null ? code : language.toLowerCase().replace(' ', '_')) + "_dict.db";
+    }
 
-        if (size == 0) {
-            return;
+    private static void closeRawDbWriters() throws Exception {
+        for (String language : LANGUAGES) {
+            RawDbWriter writer = rawDbWriters.get(language);
+            if (writer != null) {
+                writer.close();
+                logLine("Saved to " + rawDbName(language) + " successfully.");
+            }
+        }
+    }
+
+    /**
+     * Add what WiktionaryProcessor adds after the words: the name index, the conjugation table and
+     * the search indexes, and the binary export and compression of the definitions if asked to
+     */
+    private static void finishProcessedDb(Connection connection) throws Exception {
+        Statement stmt = connection.createStatement();
+        stmt.executeUpdate("CREATE INDEX name_idx ON Word (name collate nocase)");
+        connection.setAutoCommit(false);
+        conjugationProcessor.saveToTable();
+        connection.commit();
+        connection.setAutoCommit(true);
+        SearchIndex.build(connection);
+        if (BINARY_EXPORT) {
+            BinaryDictionary.export(connection, BINARY_DB);
+        }
+        if (COMPRESS_DEFINITIONS) {
+            DefinitionCodec.compressDefinitions(connection);
         }
 
-        int numThread = NUM_THREAD;
+        // a single file is easier to ship than a WAL database
+        stmt.execute("PRAGMA journal_mode=DELETE");
+        stmt.close();
+        connection.close();
+    }
 
-        if (numThread >= size) {
-            numThread = 1;
+    /**
+     * Find the pages of all the languages in the dump, in a single pass using all cores. A .bz2 dump is
+     * decompressed on the fly, which saves extracting the ~4 GB xml file beforehand, while an extracted
+     * dump is split into ranges that are scanned in parallel. Either way the listener gets the pages in
+     * dump order, one at a time, but in the second case from the scanning threads.
+     * @param extractSection Whether to extract the wikitext of the language sections of each page
+     */
+    private static void scanDump(String path, boolean extractSection, Consumer<DumpPage> listener) throws IOException {
+        int numCore = Runtime.getRuntime().availableProcessors();
+        if (path.endsWith(".bz2")) {
+            try (InputStream xmlInput = new ParallelBZip2InputStream(path, numCore)) {
+                new PageScanner(LANGUAGES, extractSection, listener).scan(xmlInput);
+            }
+        }
+        else {
+            ParallelDumpScanner.scan(path, LANGUAGES, extractSection, numCore, listener);
         }
+    }
 
-        // partitioning
-        final int CHUNK_SIZE = size / numThread;
-        final int LAST_CHUNK = size - (numThread - 1) * CHUNK_SIZE; // last chunk can be a bit bigger
+    /**
+     * Copy the word from the previous raw db if its page hasn't changed since then
+     * @return Whether the page is unchanged
+     */
+    private static boolean copyIfUnchanged(DumpPage page, Map<String, long[]> previousRevisions, Set<String> alreadyDone) {
+        if (previousRevisions == null) {
+            return false;
+        }
 
-        List<List<String>> parts = new ArrayList<>();
-        for (int i = 0; i < size - LAST_CHUNK; i += CHUNK_SIZE) {
-            parts.add(new ArrayList<>(
-                wordList.subList(i, i + CHUNK_SIZE))
-            );
+        long[] previous = previousRevisions.remove(page.title);
+        if (previous == null || page.revision == 0 || previous[0] != page.revision) {
+            return false;
         }
 
-        parts.add(new ArrayList<>(
-            wordList.subList(size - LAST_CHUNK, size))
-        );
+        if (!alreadyDone.contains(page.title)) {
+            rawDbWriters.get(LANGUAGES.get(0)).addUnchanged(page.title, previous[1]);
+            doneCounter.incrementAndGet();
+        }
+        unchangedCounter.incrementAndGet();
+        return true;
+    }
 
-        List<Thread> threadList = new ArrayList<>();
-        for (int i = 0; i < numThread; i++) {
-            List<String> workList = parts.get(i);
-            Runnable r = () -> {
-                for (String word : workList) {
-                    processWord(word);
-                }
-            };
-            Thread thread = new Thread(r);
-            thread.start();
-            threadList.add(thread);
+    private static void savePage(DumpPage page) {
+        for (Map.Entry<String, String> section : page.sections.entrySet()) {
+            rawDbWriters.get(section.getKey()).add(page.title, section.getValue(), page.revision, page.timestamp);
         }
+        doneCounter.incrementAndGet();
+    }
 
+    private static void doWork(Iterable<List<String>> batches) throws InterruptedException {
         Thread logThread = new Thread(() -> {
             while (!Thread.interrupted()) {
                 System.out.print("\r");
                 int done = doneCounter.get();
-                int error = errorList.size();
-                double percentage = (double)done / totalWords * 100;
-                System.out.print("Completed: " + done + "/" + totalWords + "(" + percentage + "%), error: " + error + "                  ");
+                int error = retryScheduler.getFailureCount();
+                int retrying = retryScheduler.getRetryCount();
+                int total = totalWords.get();
+                double percentage = (double)done / total * 100;
+                System.out.print("Completed: " + done + "/" + total + "(" + percentage + "%), error: " + error
+                        + ", retrying: " + retrying + ", rate: " + String.format("%.1f", rateController.getRate()) + "/s                  ");
 
                 try {
                     Thread.sleep(500);
@@ -144,139 +367,370 @@ public class WiktionaryDumper {
 
         logThread.start();
 
-        for(Thread t : threadList) {
-            t.join();
+        try {
+            fetchExecutor.runAll(batches);
+        } finally {
+            logThread.interrupt();
+            logThread.join();
+            System.out.println();
         }
+    }
 
-        logThread.interrupt();
-        logThread.join();
-
-        if (!errorList.isEmpty()) {
-            System.out.println("\nError remaining: ");
-            for (String s : errorList) {
-                System.out.print(s + " | ");
+    private static void processBatch(List<String> words) {
+        try {
+            if (BATCH_API) {
+                processApiBatch(words);
             }
-            System.out.println();
+            else {
+                for (String word : words) {
+                    processWord(word);
+                }
+            }
+        } catch (RuntimeException e) {
+            // a db writer failure, which isn't recorded as a failure of the word: the run can't go on
+            retryScheduler.stop();
+            throw e;
         }
-
-        // the errorList is now the new wordList, ready for the next iteration
-        wordList = errorList;
-        errorList = new ArrayList<>();
     }
 
     private static void processWord(String word) {
+        Document doc;
         try {
-            String link = "http://en.wiktionary.org/w/index.php?title=" + URLEncoder.encode(word, "UTF-8") + "&printable=yes";
-            String html = Jsoup.connect(link).ignoreContentType(true).execute().body();
-
-            // parse and do some initial cleaning of the DOM
-            Document doc = Jsoup.parse(html);
-            Element content = doc.select("#mw-content-text").first();
-            content.select("script").remove();               // remove <script> tags
-            content.select("noscript").remove();             // remove <noscript> tags
-            content.select("#toc").remove();                 // remove the table of content
-            WiktionaryDumper.removeComments(content);        // remove comments
-
-            WiktionaryDumper.removeEmptyTags(content);       // remove all empty tags
-
-            // parse for the content of the French section, if it exist
-            Elements children = content.children();
-            boolean frenchFound = false;
-            Elements frenchCollection = new Elements();
-            for (Element elem : children) {
-                if (!frenchFound) {
-                    if (elem.tagName().equals("h2") && elem.text().equals("French")) {
-                        frenchFound = true;
-                    }
+            doc = fetchPage(word);
+        } catch (Exception e) {
+            fail(word, classify(e));
+            return;
+        }
+
+        try {
+            saveContent(word, doc.select("#mw-content-text").first());
+        } catch (RawDbWriter.FailedException e) {
+            // not the page's fault, and the run can't go on: see processBatch()
+            throw e;
+        } catch (Exception e) {
+            fail(word, RetryScheduler.Failure.PARSER_ERROR);
+        }
+    }
+
+    /**
+     * Get the rendered content of all the words with as few API requests as possible. Words that
+     * the server left out of the response are retried later.
+     */
+    private static void processApiBatch(List<String> words) {
+        // the API returns only the content, so it's cached under a different key than the full page
+        List<String> toFetch = new ArrayList<>();
+        for (String word : words) {
+            try {
+                HttpCache.Entry cached = httpCache != null ? httpCache.get("api:" + word) : null;
+                if (cached != null && httpCache.isFresh(cached)) {
+                    saveContent(word, Jsoup.parseBodyFragment(cached.body).body());
                 }
                 else {
-                    if (!elem.tagName().equals("h2")) {  // French, English, etc.
-                        frenchCollection.add(elem);
-                    }
-                    else {
-                        break;
-                    }
+                    toFetch.add(word);
                 }
+            } catch (RawDbWriter.FailedException e) {
+                throw e;
+            } catch (Exception e) {
+                fail(word, RetryScheduler.Failure.PARSER_ERROR);
             }
+        }
+        if (toFetch.isEmpty()) {
+            return;
+        }
 
-            // remove citations
-            removeCitations(frenchCollection);
+        Map<String, String> pages;
+        try {
+            pages = apiFetcher.fetch(toFetch);
+        } catch (Exception e) {
+            RetryScheduler.Failure failure = classify(e);
+            for (String word : toFetch) {
+                fail(word, failure);
+            }
+            return;
+        }
 
-            // remove all attributes. Has to be at the end, otherwise can't grab id, class, etc.
-            removeAttributes(frenchCollection);
+        for (String word : toFetch) {
+            if (!pages.containsKey(word)) {
+                fail(word, RetryScheduler.Failure.TRANSIENT);
+                continue;
+            }
+            String html = pages.get(word);
+            if (html == null) {
+                fail(word, RetryScheduler.Failure.NOT_FOUND);
+                continue;
+            }
+            try {
+                if (httpCache != null) {
+                    httpCache.put("api:" + word, html, null, null);
+                }
+                saveContent(word, Jsoup.parseBodyFragment(html).body());
+            } catch (RawDbWriter.FailedException e) {
+                throw e;
+            } catch (Exception e) {
+                fail(word, RetryScheduler.Failure.PARSER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Clean the rendered content of the page, and save the section of each of its languages to the
+     * raw db of the language. In fused mode, the French section is also processed and saved to the
+     * processed db. It's processed from the same html the raw db gets, parsed again like
+     * WiktionaryProcessor does, so that the processed db is the same byte for byte as with the two
+     * stages: the pretty-printing whitespace of the html ends up in the definitions.
+     * @param content The element containing the rendered content
+     */
+    private static void saveContent(String word, Element content) {
+        DumpPage page = dumpPages.get(word);
+        Map<String, Elements> sections = extractSections(content, page.languages);
+        for (String language : page.languages) {
+            RawDbWriter writer = rawDbWriters.get(language);
+            boolean processed = FUSED && language.equals("French");
+            if (writer == null && !processed) {
+                continue;
+            }
+            // convert to text, and remove useless tags
+            String html = rewriteTags(sections.get(language).toString());
+            if (writer != null) {
+                writer.add(word, html, page.revision, page.timestamp);
+            }
+            if (processed) {
+                ConjugationProcessor.Partial conjugations = conjugationProcessor.newPartial();
+                String definition = WiktionaryProcessor.processWord(word, html, conjugations);
+                conjugationProcessor.merge(conjugations);
+                processedDbWriter.add(word, definition, page.revision, page.timestamp);
+            }
+        }
+        dumpPages.remove(word);
+        doneCounter.incrementAndGet();
+        retryScheduler.succeeded(word);
+    }
 
-            // convert to text
-            String text = frenchCollection.toString();
+    /**
+     * @param content The element containing the rendered content of a page
+     * @return The cleaned elements of the section of each language, none if the page has no such section
+     */
+    static Map<String, Elements> extractSections(Element content, Collection<String> languages) {
+        // newer MediaWiki versions wrap the content in a .mw-parser-output div
+        if (content.children().size() == 1 && content.child(0).hasClass("mw-parser-output")) {
+            content = content.child(0);
+        }
 
-            // remove useless tags
-            text = text.replace("<span>", "").replace("</span>", "").replace("<a>", "").replace("</a>", "")
-                    .replace("<strong>", "<b>").replace("</strong>", "</b>").replace("<img>", "");
+        // parse for the content of the sections, if they exist. Only the headers and the sections we
+        // want are cleaned, the other languages are skipped as they are
+        Map<String, Elements> sections = new HashMap<>();
+        Set<String> wanted = new HashSet<>(languages);
+        Elements current = null;
+        for (Element elem : content.children()) {
+            // French, English, etc. Newer MediaWiki versions wrap the <h2> in a div.mw-heading2
+            boolean isHeader = elem.tagName().equals("h2") || elem.hasClass("mw-heading2");
+            if (current == null && !isHeader) {
+                continue;
+            }
+            clean(elem);
+            if (elem.parentNode() == null) {
+                continue;       // removed by the cleaning
+            }
 
-            psParms.setString(1, word);
-            psParms.setString(2, text);
-            psParms.executeUpdate();
-            doneCounter.incrementAndGet();
-        } catch (Exception e) {
-            errorList.add(word);
+            if (isHeader) {
+                if (current != null && wanted.isEmpty()) {
+                    break;      // the last section we want is over
+                }
+                // only the first section of a language is taken, like in the dump
+                current = wanted.remove(elem.text()) ? new Elements() : null;
+                if (current != null) {
+                    sections.put(elem.text(), current);
+                }
+            }
+            else {
+                removeCitations(elem);
+
+                // remove all attributes. Has to be at the end, otherwise can't grab id, class, etc.
+                removeAttributes(elem);
+                current.add(elem);
+            }
         }
+
+        for (String language : wanted) {
+            sections.put(language, new Elements());
+        }
+        return sections;
     }
 
     /**
-     * Remove all citations. Ideally this shouldn't be done in this class but it
-     * relies on class and style of some elements so it can't easily be done once
-     * all attributes have been striped out.
-     * @param elements List of all elements to find and remove citations
+     * Get the printable version of the page, from the cache if possible
+     * @return The parsed page
+     * @throws HttpStatusException If the server answered with an error
      */
-    private static void removeCitations(Elements elements) {
-        for (Element elem : elements) {
-            for (Element child : elem.children()) {
-                if (child.attr("style").equals("display: block;") && child.html().contains("citation-whole")) {
-                    child.remove();
+    static Document fetchPage(String word) throws IOException, InterruptedException {
+        String link = PAGE_URL + "?title=" + URLEncoder.encode(word, "UTF-8") + "&printable=yes";
+        HttpCache.Entry cached = httpCache != null ? httpCache.get(word) : null;
+        if (cached != null && httpCache.isFresh(cached)) {
+            return Jsoup.parse(cached.body, link);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        if (cached != null) {
+            // only get the page again if it changed since we cached it
+            if (cached.etag != null) {
+                headers.put("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                headers.put("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        rateController.acquire();
+        long start = System.nanoTime();
+        try (HttpTransport.Response response = transport.get(link, headers)) {
+            if (response.status == 429 || response.status == 503) {
+                rateController.onThrottled(RateController.parseRetryAfter(response.header("Retry-After")));
+                throw new HttpStatusException("Throttled", response.status, link);
+            }
+            rateController.onSuccess(System.nanoTime() - start);
+
+            if (response.status == 304 && cached != null) {
+                httpCache.revalidated(word, cached);
+                return Jsoup.parse(cached.body, link);
+            }
+            if (response.status != 200) {
+                throw new HttpStatusException("HTTP error fetching page", response.status, link);
+            }
+
+            if (httpCache == null) {
+                // nothing to keep, parse the page as it's transferred
+                return Jsoup.parse(response.body, response.charset().name(), link);
+            }
+            byte[] body = response.bodyAsBytes();
+            httpCache.put(word, new String(body, response.charset()), response.header("ETag"), response.header("Last-Modified"));
+            return Jsoup.parse(new ByteArrayInputStream(body), response.charset().name(), link);
+        }
+    }
+
+    private static void fail(String word, RetryScheduler.Failure failure) {
+        try {
+            if (FUSED) {
+                processedDbWriter.addFailure(word);
+            }
+            else {
+                for (String language : dumpPages.get(word).languages) {
+                    rawDbWriters.get(language).addFailure(word);
                 }
             }
+        } finally {
+            // even if the writer failed, otherwise the word stays in flight and the iteration never ends
+            retryScheduler.failed(word, failure);
         }
     }
 
-    private static void logLine(String txt) {
-        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        Date date = new Date();
-        System.out.println(dateFormat.format(date) + ": " + txt);
+    /**
+     * @param e Why a page couldn't be fetched
+     */
+    private static RetryScheduler.Failure classify(Exception e) {
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).getStatusCode();
+            if (status == 429 || status == 503) {
+                return RetryScheduler.Failure.THROTTLED;
+            }
+            return status >= 500 ? RetryScheduler.Failure.TRANSIENT : RetryScheduler.Failure.NOT_FOUND;
+        }
+        if (e instanceof SocketTimeoutException || e instanceof HttpTimeoutException) {
+            rateController.onThrottled(0);
+            return RetryScheduler.Failure.THROTTLED;
+        }
+        if (e instanceof IOException || e instanceof InterruptedException) {
+            return RetryScheduler.Failure.TRANSIENT;
+        }
+        return RetryScheduler.Failure.PARSER_ERROR;
     }
 
-    private static void removeComments(Node node) {
-        for (int i = 0; i < node.childNodes().size();) {
-            Node child = node.childNode(i);
-            if (child.nodeName().equals("#comment"))
+    /**
+     * Remove all citations. Ideally this shouldn't be done in this class but it
+     * relies on class and style of some elements so it can't easily be done once
+     * all attributes have been striped out.
+     * @param elem Element to find and remove citations in
+     */
+    private static void removeCitations(Element elem) {
+        for (Element child : elem.children()) {
+            if (child.attr("style").equals("display: block;") && child.html().contains("citation-whole")) {
                 child.remove();
-            else {
-                removeComments(child);
-                i++;
             }
         }
     }
 
-    private static void removeAttributes(Element doc) {
-        Elements el = doc.getAllElements();
-        for (Element e : el) {
-            e.clearAttributes();
+    /**
+     * Clean the element in a single pass: remove <script>, <noscript>, the table of content, the [edit]
+     * links of the headers (only in the html of the API), comments and all empty blocks. If the element
+     * itself has to go, it's removed from its parent.
+     * @return Whether the element has some text left
+     */
+    private static boolean clean(Element element) {
+        if (element.tagName().equals("script") || element.tagName().equals("noscript") || element.id().equals("toc")
+                || element.hasClass("mw-editsection")) {
+            element.remove();
+            return false;
         }
-    }
 
-    private static void removeAttributes(Elements elems) {
-        for (Element e : elems) {
-            removeAttributes(e);
+        boolean hasText = false;
+        for (int i = 0; i < element.childNodeSize();) {
+            Node child = element.childNode(i);
+            if (child instanceof Comment) {
+                child.remove();
+                continue;
+            }
+            if (child instanceof Element) {
+                hasText |= clean((Element) child);
+                if (child.parentNode() == null) {
+                    continue;
+                }
+            }
+            else if (child instanceof TextNode && !((TextNode) child).isBlank()) {
+                hasText = true;
+            }
+            i++;
         }
+
+        if (!hasText && element.isBlock()) {
+            element.remove();
+        }
+        return hasText;
     }
 
-    private static void removeEmptyTags(Element doc) {
-        for (Element element : doc.select("*")) {
-            if (!element.hasText() && element.isBlock()) {
-                element.remove();
+    /**
+     * Remove <span> and <a> tags, drop <img> and turn <strong> into <b>, in a single pass over the html
+     */
+    static String rewriteTags(String html) {
+        StringBuilder sb = new StringBuilder(html.length());
+        int start = 0;
+        for (int i = html.indexOf('<'); i >= 0; i = html.indexOf('<', i + 1)) {
+            String replacement = null;
+            int length = 0;
+            for (int j = 0; j < TAG_REWRITES.length; j += 2) {
+                if (html.startsWith(TAG_REWRITES[j], i)) {
+                    replacement = TAG_REWRITES[j + 1];
+                    length = TAG_REWRITES[j].length();
+                    break;
+                }
+            }
+            if (replacement != null) {
+                sb.append(html, start, i).append(replacement);
+                start = i + length;
+                i = start - 1;
             }
         }
+        return sb.append(html, start, html.length()).toString();
+    }
+
+    private static void logLine(String txt) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + ": " + txt);
     }
 
-    static List<String> getWordList() {
-        return wordList;
+    private static void removeAttributes(Element doc) {
+        Elements el = doc.getAllElements();
+        for (Element e : el) {
+            e.clearAttributes();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,280 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+
+/**
+ * Check that the single-pass cleaning of the fetched pages (extractSections() and rewriteTags())
+ * gives byte for byte the French section that the original multi-pass pipeline gave, run as a program:
+ *   java WiktionaryDumperCheck [folder of .html pages]
+ * Without a folder, the pages of fixtures/pages are compared with their .golden file, which was
+ * written by the original pipeline (-Dfixtures=<folder> if not run from the project folder). They
+ * have scripts, comments, empty blocks, citations, a table of content, empty headers, and images,
+ * links and <strong> to rewrite. With a folder, e.g. pages saved from Wiktionary, every page is
+ * compared with what legacyClean(), the original pipeline, gives for it.
+ * Without a folder, the fixture pages are then also dumped for real from a local stub server, both
+ * with -Dfused=true and with the two stages (WiktionaryDumper then WiktionaryProcessor), each in its
+ * own JVM, and the two processed_dict.db must have the same Word and Conjugation rows.
+ * Exits with an error if any page differs.
+ */
+public class WiktionaryDumperCheck {
+    private static final String FIXTURES = System.getProperty("fixtures", "fixtures");
+    private static final long TIMEOUT_SECONDS = 120;
+
+    public static void main(String argv[]) throws Exception {
+        boolean golden = argv.length == 0;
+        File[] pages = new File(golden ? Paths.get(FIXTURES, "pages").toString() : argv[0])
+                .listFiles((dir, name) -> name.endsWith(".html"));
+        check(pages != null && pages.length > 0, "no pages to compare");
+
+        int differ = 0;
+        for (File page : pages) {
+            String html = new String(Files.readAllBytes(page.toPath()), StandardCharsets.UTF_8);
+            String expected;
+            if (golden) {
+                Path goldenFile = Paths.get(page.getPath().replaceAll("\\.html$", ".golden"));
+                expected = new String(Files.readAllBytes(goldenFile), StandardCharsets.UTF_8);
+            }
+            else {
+                expected = legacyClean(Jsoup.parse(html));
+            }
+
+            String actual = clean(Jsoup.parse(html));
+            if (!actual.equals(expected)) {
+                differ++;
+                System.out.println(page.getName() + " differs, expected:\n" + expected + "\nactual:\n" + actual + "\n");
+            }
+        }
+        check(differ == 0, differ + " of " + pages.length + " pages differ");
+        if (golden) {
+            checkFusedMode(pages);
+        }
+        System.out.println("WiktionaryDumperCheck: OK, " + pages.length + " pages");
+    }
+
+    /**
+     * Dump the pages with and without -Dfused, and compare the processed dbs
+     */
+    private static void checkFusedMode(File[] pages) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/w/index.php", exchange -> servePage(exchange, pages));
+        server.start();
+        Path dir = Files.createTempDirectory("wiktionary_dumper_check");
+        try {
+            Path dump = dir.resolve("dump.xml");
+            Files.write(dump, dump(pages).getBytes(StandardCharsets.UTF_8));
+            List<String> properties = Arrays.asList("-Dcontact=check@example.org", "-DcacheDir=",
+                    "-DpageUrl=http://127.0.0.1:" + server.getAddress().getPort() + "/w/index.php");
+
+            Path twoStages = Files.createDirectory(dir.resolve("two_stages"));
+            run(twoStages, properties, "WiktionaryDumper", dump.toString());
+            run(twoStages, properties, "WiktionaryProcessor");
+            Path fused = Files.createDirectory(dir.resolve("fused"));
+            List<String> fusedProperties = new ArrayList<>(properties);
+            fusedProperties.add("-Dfused=true");
+            run(fused, fusedProperties, "WiktionaryDumper", dump.toString());
+
+            List<String> words = rows(twoStages, "SELECT name, definition FROM Word ORDER BY name");
+            check(words.size() == pages.length - 1, words.size() + " words processed by the two stages, the page "
+                    + "without a French section aside there are " + (pages.length - 1));
+            check(words.equals(rows(fused, "SELECT name, definition FROM Word ORDER BY name")),
+                    "the fused mode gave other definitions than the two stages:\n" + words + "\n"
+                    + rows(fused, "SELECT name, definition FROM Word ORDER BY name"));
+            List<String> conjugations = rows(twoStages, "SELECT * FROM Conjugation ORDER BY name");
+            check(!conjugations.isEmpty(), "no conjugation found by the two stages");
+            check(conjugations.equals(rows(fused, "SELECT * FROM Conjugation ORDER BY name")),
+                    "the fused mode gave other conjugations than the two stages");
+        } finally {
+            server.stop(0);
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * @return A dump with a page for each fixture page, and one that the server doesn't have
+     */
+    private static String dump(File[] pages) {
+        List<String> titles = new ArrayList<>();
+        for (File page : pages) {
+            titles.add(page.getName().replace(".html", ""));
+        }
+        titles.add("missing");
+        StringBuilder sb = new StringBuilder("<mediawiki>\n");
+        for (int i = 0; i < titles.size(); i++) {
+            String title = titles.get(i);
+            sb.append("  <page>\n    <title>").append(title).append("</title>\n    <ns>0</ns>\n    <id>").append(i)
+                    .append("</id>\n    <revision>\n      <id>").append(100 + i).append("</id>\n")
+                    .append("      <timestamp>2017-01-01T00:00:00Z</timestamp>\n      <text xml:space=\"preserve\">")
+                    .append(title.equals("english_only") ? "==English==\n" : "==English==\n==French==\n")
+                    .append("</text>\n    </revision>\n  </page>\n");
+        }
+        return sb.append("</mediawiki>\n").toString();
+    }
+
+    private static void servePage(HttpExchange exchange, File[] pages) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String title = URLDecoder.decode(query.substring("title=".length(), query.indexOf('&')), "UTF-8");
+        for (File page : pages) {
+            if (page.getName().equals(title + ".html")) {
+                byte[] body = Files.readAllBytes(page.toPath());
+                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                return;
+            }
+        }
+        exchange.sendResponseHeaders(404, -1);
+        exchange.close();
+    }
+
+    /**
+     * Run the program in the folder, in its own JVM, and wait for it to succeed
+     */
+    private static void run(Path dir, List<String> properties, String... program) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(properties);
+        // absolute, since the program runs in another folder
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(Paths.get(entry).toAbsolutePath().toString());
+        }
+        command.add("-cp");
+        command.add(String.join(File.pathSeparator, classPath));
+        command.addAll(Arrays.asList(program));
+        Path output = dir.resolve(program[0] + ".txt");
+        Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true)
+                .redirectOutput(output.toFile()).start();
+        if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            check(false, program[0] + " in " + dir + " didn't exit after " + TIMEOUT_SECONDS + " s");
+        }
+        String printed = new String(Files.readAllBytes(output), StandardCharsets.UTF_8);
+        check(process.exitValue() == 0, program[0] + " in " + dir + " failed:\n"
+                + printed.substring(Math.max(0, printed.length() - 3000)));
+    }
+
+    private static List<String> rows(Path dir, String sql) throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("processed_dict.db"));
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    row.append(i > 1 ? " | " : "").append(rs.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * What saveContent() saves for the French section of the page
+     */
+    private static String clean(Document doc) {
+        Element content = doc.select("#mw-content-text").first();
+        Elements french = WiktionaryDumper.extractSections(content, Collections.singletonList("French")).get("French");
+        return WiktionaryDumper.rewriteTags(french.toString());
+    }
+
+    /**
+     * The original cleaning of processWord(), as it was before the single pass
+     */
+    static String legacyClean(Document doc) {
+        Element content = doc.select("#mw-content-text").first();
+        content.select("script").remove();
+        content.select("noscript").remove();
+        content.select("#toc").remove();
+        removeComments(content);
+        for (Element element : content.select("*")) {
+            if (!element.hasText() && element.isBlock()) {
+                element.remove();
+            }
+        }
+
+        boolean frenchFound = false;
+        Elements frenchCollection = new Elements();
+        for (Element elem : content.children()) {
+            if (!frenchFound) {
+                if (elem.tagName().equals("h2") && elem.text().equals("French")) {
+                    frenchFound = true;
+                }
+            }
+            else if (!elem.tagName().equals("h2")) {
+                frenchCollection.add(elem);
+            }
+            else {
+                break;
+            }
+        }
+
+        for (Element elem : frenchCollection) {
+            for (Element child : elem.children()) {
+                if (child.attr("style").equals("display: block;") && child.html().contains("citation-whole")) {
+                    child.remove();
+                }
+            }
+        }
+        for (Element elem : frenchCollection) {
+            for (Element e : elem.getAllElements()) {
+                e.clearAttributes();
+            }
+        }
+
+        return frenchCollection.toString().replace("<span>", "").replace("</span>", "").replace("<a>", "").replace("</a>", "")
+                .replace("<strong>", "<b>").replace("</strong>", "</b>").replace("<img>", "");
+    }
+
+    private static void removeComments(Node node) {
+        for (int i = 0; i < node.childNodes().size();) {
+            Node child = node.childNode(i);
+            if (child.nodeName().equals("#comment")) {
+                child.remove();
+            }
+            else {
+                removeComments(child);
+                i++;
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("WiktionaryDumperCheck failed: " + message);
+        }
+    }
+}
@@ -10,13 +10,24 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Process raw db file
+ * Process raw db file. The raw words are read in rowid ranges that are parsed on all cores, with
+ * the conjugations collected per range. The results are written, and the conjugations merged, in
+ * rowid order by the main thread, so the output is the same as when processing the words one by one.
  * Created by Chin on 27-Jan-17.
  */
 public class WiktionaryProcessor {
@@ -37,10 +48,33 @@ public class WiktionaryProcessor {
         removeSections.add("Descendants");
     }
 
+    // the Word table of processed_dict.db, also written directly by WiktionaryDumper in fused mode.
+    // id is the rowid, declared so that VACUUM keeps it: Definition_fts is joined on it
+    static final String CREATE_WORD_TABLE = "CREATE TABLE Word " +
+            "( id         INTEGER PRIMARY KEY, " +
+            "  name       TEXT NOT NULL, " +
+            "  definition TEXT) ";
+
     private static PreparedStatement psParms;
     private static final AtomicInteger doneCounter = new AtomicInteger();
     private static ConjugationProcessor conjugationProcessor;
     private static int totalWords;
+    private static final String PREVIOUS_DB = System.getProperty("previous");
+    private static final int THREADS = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+    private static final int CHUNK_SIZE = 1000;     // rowids per chunk
+    private static final boolean MEASURE_SEARCH = Boolean.getBoolean("measureSearch");
+    private static final boolean COMPRESS_DEFINITIONS = Boolean.getBoolean("compressDefinitions");
+    private static final boolean BINARY_EXPORT = Boolean.getBoolean("binaryExport");
+    private static final List<Connection> rawConnections = Collections.synchronizedList(new ArrayList<>());
+    private static final ThreadLocal<Connection> rawConnection = new ThreadLocal<>();
+
+    /**
+     * The words of a chunk parsed by a worker, waiting to be written
+     */
+    private static class ProcessedChunk {
+        final List<String[]> words = new ArrayList<>();     // name, definition
+        final ConjugationProcessor.Partial conjugations = conjugationProcessor.newPartial();
+    }
 
     public static void main (String argv []) throws Exception {
         logLine("Program started.");
@@ -50,20 +84,29 @@ public class WiktionaryProcessor {
         Connection connection_raw = DriverManager.getConnection("jdbc:sqlite:raw_en-fr_dict.db");
 
         Statement stmt = connection.createStatement();
-        String sql = "CREATE TABLE Word " +
-                "( name       TEXT NOT NULL, " +
-                "  definition TEXT) ";
-        stmt.executeUpdate(sql);
+        stmt.executeUpdate(CREATE_WORD_TABLE);
         stmt.executeUpdate("CREATE INDEX name_idx ON Word (name collate nocase)");
 
         psParms = connection.prepareStatement("INSERT INTO Word (name, definition) VALUES (?,?)");
         conjugationProcessor = new ConjugationProcessor(connection);
 
+        String rawFilter = "";
+        if (PREVIOUS_DB != null) {
+            // words whose page hasn't changed since the previous run are copied over as they were processed then
+            copyUnchanged(connection);
+            rawFilter = " where name not in (select name from progress where status = 'unchanged')";
+        }
+
         Statement stmt_raw = connection_raw.createStatement();
-        ResultSet rs = stmt_raw.executeQuery("SELECT COUNT(*) FROM Word");
+        ResultSet rs = stmt_raw.executeQuery("SELECT COUNT(*) FROM word" + rawFilter);
         while (rs.next()){
             totalWords = rs.getInt(1);
         }
+        rs = stmt_raw.executeQuery("SELECT MIN(rowid), MAX(rowid) FROM word");
+        long minRowid = rs.getLong(1);
+        long maxRowid = rs.getLong(2);
+        stmt_raw.close();
+        connection_raw.close();
 
         Thread logThread = new Thread(() -> {
             while (!Thread.interrupted()) {
@@ -81,22 +124,28 @@ public class WiktionaryProcessor {
         });
 
         logThread.start();
-
-
-        rs = stmt_raw.executeQuery("select * from word");
-        while (rs.next()) {
-            String word = rs.getString("name");
-            String definition_raw = rs.getString("definition");
-            processWord(word, definition_raw);
-            doneCounter.incrementAndGet();
+        try {
+            processChunks(connection, rawFilter, minRowid, maxRowid);
+        } finally {
+            // or the JVM would never exit when a worker fails
+            logThread.interrupt();
+            logThread.join();
         }
 
-        logThread.interrupt();
-        logThread.join();
-
         System.out.println();
         System.out.println("Saving conjugation table");
         conjugationProcessor.saveToTable();
+        SearchIndex.build(connection);
+        if (MEASURE_SEARCH) {
+            SearchIndex.measure(connection, 20);
+        }
+        if (BINARY_EXPORT) {
+            BinaryDictionary.export(connection, "processed_dict.bin");
+        }
+        if (COMPRESS_DEFINITIONS) {
+            // after the search indexes and the export, which need the text
+            DefinitionCodec.compressDefinitions(connection);
+        }
 
         // Dump the database contents to a file
         stmt.executeUpdate("backup to processed_dict.db");
@@ -105,11 +154,120 @@ public class WiktionaryProcessor {
         logLine("Saved to processed_dict.db successfully. Everything done.");
     }
 
-    private static void processWord(String word, String rawDefinition) {
+    /**
+     * Copy the words (and their conjugation) that the dumper marked as unchanged from the previous processed db
+     */
+    private static void copyUnchanged(Connection connection) throws SQLException {
+        PreparedStatement psAttach = connection.prepareStatement("ATTACH DATABASE ? AS previous");
+        psAttach.setString(1, PREVIOUS_DB);
+        psAttach.execute();
+        psAttach.close();
+
+        Statement stmt = connection.createStatement();
+        stmt.execute("ATTACH DATABASE 'raw_en-fr_dict.db' AS raw");
+        String unchanged = "(SELECT name FROM raw.Progress WHERE status = 'unchanged')";
+        int copied = stmt.executeUpdate("INSERT INTO Word (name, definition) " +
+                "SELECT name, definition FROM previous.Word WHERE name IN " + unchanged);
+        stmt.executeUpdate("INSERT INTO Conjugation SELECT * FROM previous.Conjugation WHERE name IN " + unchanged);
+
+        // everything is compressed at the end with a new dictionary, if at all
+        DefinitionCodec previousCodec = DefinitionCodec.load(connection, "previous");
+        if (previousCodec != null) {
+            previousCodec.decompressDefinitions(connection);
+        }
+        stmt.execute("DETACH DATABASE raw");
+        stmt.execute("DETACH DATABASE previous");
+        stmt.close();
+        logLine("Copied " + copied + " unchanged words from " + PREVIOUS_DB + ".");
+    }
+
+    /**
+     * Parse the raw words with rowids in [fromRowid, toRowid], in rowid order
+     */
+    private static ProcessedChunk processChunk(String rawFilter, long fromRowid, long toRowid) throws SQLException {
+        // sqlite connections can't be shared between threads, so each worker has its own
+        Connection conn = rawConnection.get();
+        if (conn == null) {
+            conn = DriverManager.getConnection("jdbc:sqlite:raw_en-fr_dict.db");
+            rawConnection.set(conn);
+            rawConnections.add(conn);
+        }
+
+        ProcessedChunk chunk = new ProcessedChunk();
+        String sql = "SELECT name, definition FROM word" + rawFilter + (rawFilter.isEmpty() ? " WHERE" : " AND")
+                + " rowid BETWEEN ? AND ? ORDER BY rowid";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, fromRowid);
+            ps.setLong(2, toRowid);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                String word = rs.getString("name");
+                chunk.words.add(new String[] {word, processWord(word, rs.getString("definition"), chunk.conjugations)});
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Process the raw words in chunks on a pool of THREADS workers, and write the results in order
+     */
+    private static void processChunks(Connection connection, String rawFilter, long minRowid, long maxRowid) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        Deque<Future<ProcessedChunk>> pending = new ArrayDeque<>();
+        connection.setAutoCommit(false);
+        try {
+            long next = minRowid;
+            while (next <= maxRowid || !pending.isEmpty()) {
+                // keep the workers a few chunks ahead of the writer, but not so far that memory blows up
+                while (next <= maxRowid && pending.size() < THREADS * 4) {
+                    long from = next;
+                    long to = Math.min(maxRowid, next + CHUNK_SIZE - 1);
+                    pending.add(pool.submit(() -> processChunk(rawFilter, from, to)));
+                    next = to + 1;
+                }
+
+                ProcessedChunk chunk = pending.remove().get();
+                for (String[] word : chunk.words) {
+                    psParms.setString(1, word[0]);
+                    psParms.setString(2, word[1]);
+                    psParms.addBatch();
+                    doneCounter.incrementAndGet();
+                }
+                psParms.executeBatch();
+                conjugationProcessor.merge(chunk.conjugations);
+                connection.commit();
+            }
+        } finally {
+            pool.shutdownNow();
+            // a worker may still be reading when another one failed
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            for (Connection conn : rawConnections) {
+                conn.close();
+            }
+            rawConnections.clear();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Keep only the wanted sections of the word, from its raw html. Also what WiktionaryDumper does in
+     * fused mode, so that both modes give the same definitions.
+     * @param conjugations Where to add the conjugation of the word, if it has one
+     * @return The html of the kept sections
+     */
+    static String processWord(String word, String rawDefinition, ConjugationProcessor.Partial conjugations) {
         rawDefinition = rawDefinition.replaceAll("&nbsp;", " ");
         Element doc = Jsoup.parse(rawDefinition).body();
+        return processSection(word, doc.children(), conjugations);
+    }
 
-        Elements children = doc.children();
+    /**
+     * Keep only the wanted sections of an already parsed French section
+     * @param children The elements of the French section
+     * @param conjugations Where to add the conjugation of the word, if it has one
+     * @return The html of the kept sections
+     */
+    static String processSection(String word, Elements children, ConjugationProcessor.Partial conjugations) {
         boolean isCurrentlyRemoveSection = false;
         Elements frenchCollection = new Elements();
 
@@ -135,7 +293,7 @@ public class WiktionaryProcessor {
                 Element table = div.getElementsByTag("table").first();
 
                 if (table != null) {
-                    conjugationProcessor.processConjugationFromTable(word, table);
+                    conjugations.processConjugationFromTable(word, table);
                 }
 
                 // skip anything after this conjugation header and before the next header
@@ -164,13 +322,7 @@ public class WiktionaryProcessor {
             }
         }
 
-        try {
-            psParms.setString(1, word);
-            psParms.setString(2, frenchCollection.toString());
-            psParms.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        return frenchCollection.toString();
     }
 
     private static boolean isSubheaders(Element elem) {
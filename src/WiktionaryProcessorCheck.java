@@ -0,0 +1,148 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Check that WiktionaryProcessor gives the same processed db whatever the number of threads, run
+ * as a program:
+ *   java WiktionaryProcessorCheck
+ * A raw db of a few thousand words, spread over several chunks, is made from the French sections
+ * of fixtures/pages (-Dfixtures=<folder> if not run from the project folder), and processed with
+ * -Dthreads=1 and -Dthreads=4, each in its own JVM since the processor works on the current folder.
+ * The Word and Conjugation tables must be identical, row for row. A raw db with a word the
+ * processor fails on must make it exit with an error rather than hang.
+ * Exits with an error if any of these doesn't hold.
+ */
+public class WiktionaryProcessorCheck {
+    private static final String FIXTURES = System.getProperty("fixtures", "fixtures");
+    private static final int WORDS = 3500;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    public static void main(String argv[]) throws Exception {
+        Path dir = Files.createTempDirectory("wiktionary_processor_check");
+        try {
+            List<String[]> words = words();
+            Path single = makeRawDb(dir.resolve("threads1"), words);
+            Path parallel = makeRawDb(dir.resolve("threads4"), words);
+            check(process(single, 1) == 0, "the processor failed with 1 thread:\n" + output(single));
+            check(process(parallel, 4) == 0, "the processor failed with 4 threads:\n" + output(parallel));
+
+            for (String table : new String[] {"Word", "Conjugation"}) {
+                List<String> expected = rows(single, table);
+                List<String> actual = rows(parallel, table);
+                check(!expected.isEmpty(), "no rows in " + table);
+                check(actual.size() == expected.size(), table + " has " + actual.size() + " rows with 4 threads, "
+                        + expected.size() + " with 1");
+                for (int i = 0; i < expected.size(); i++) {
+                    check(actual.get(i).equals(expected.get(i)), table + " row " + i + " is\n" + actual.get(i)
+                            + "\nwith 4 threads, and\n" + expected.get(i) + "\nwith 1");
+                }
+            }
+
+            // a conjugation table too short to be read, in a chunk in the middle
+            words.add(WORDS / 2, new String[] {"casser", "<h4>Conjugation</h4><div><table><tr><th>x</th></tr></table></div>"});
+            Path failing = makeRawDb(dir.resolve("failing"), words);
+            check(process(failing, 4) != 0, "the processor didn't report the word it failed on");
+            System.out.println("WiktionaryProcessorCheck: OK, " + rows(single, "Word").size() + " words and "
+                    + rows(single, "Conjugation").size() + " conjugations");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * @return Name and raw definition of the words, the fixture pages over and over under different names
+     */
+    private static List<String[]> words() throws Exception {
+        File[] pages = new File(FIXTURES, "pages").listFiles((d, name) -> name.endsWith(".golden"));
+        check(pages != null && pages.length > 0, "no fixture pages in " + FIXTURES);
+        List<String[]> words = new ArrayList<>();
+        for (int i = 0; i < WORDS; i++) {
+            File page = pages[i % pages.length];
+            String definition = new String(Files.readAllBytes(page.toPath()), StandardCharsets.UTF_8);
+            words.add(new String[] {page.getName().replace(".golden", "") + i, definition});
+        }
+        return words;
+    }
+
+    private static Path makeRawDb(Path dir, List<String[]> words) throws Exception {
+        Files.createDirectories(dir);
+        RawDbWriter writer = new RawDbWriter(dir.resolve("raw_en-fr_dict.db").toString(), null);
+        for (int i = 0; i < words.size(); i++) {
+            writer.add(words.get(i)[0], words.get(i)[1], i + 1, "2017-01-01T00:00:00Z");
+        }
+        writer.close();
+        return dir;
+    }
+
+    /**
+     * @return The exit status of the processor
+     */
+    private static int process(Path dir, int threads) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        // absolute, since the processor runs in another folder
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(Paths.get(entry).toAbsolutePath().toString());
+        }
+        Process process = new ProcessBuilder(java, "-Dthreads=" + threads, "-cp", String.join(File.pathSeparator, classPath),
+                "WiktionaryProcessor")
+                .directory(dir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("output.txt").toFile())
+                .start();
+        if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            check(false, "the processor with " + threads + " threads in " + dir + " didn't exit after " + TIMEOUT_SECONDS + " s");
+        }
+        return process.exitValue();
+    }
+
+    /**
+     * @return The end of what the processor printed
+     */
+    private static String output(Path dir) throws Exception {
+        String output = new String(Files.readAllBytes(dir.resolve("output.txt")), StandardCharsets.UTF_8);
+        return output.substring(Math.max(0, output.length() - 3000));
+    }
+
+    private static List<String> rows(Path dir, String table) throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("processed_dict.db"));
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT rowid, * FROM " + table + " ORDER BY rowid")) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    row.append(i > 1 ? " | " : "").append(rs.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("WiktionaryProcessorCheck failed: " + message);
+        }
+    }
+}
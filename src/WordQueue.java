@@ -0,0 +1,57 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of words between the dump scan and the fetch workers. The scanner blocks when the
+ * queue is full, so memory stays bounded however far ahead of the crawl the scan is.
+ * It's consumed by polling, and ends when the producer calls close().
+ */
+public class WordQueue {
+    private static final String END = new String("end of words");
+
+    private final BlockingQueue<String> queue;
+    private volatile boolean ended;
+
+    public WordQueue(int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public void put(String word) {
+        try {
+            queue.put(word);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing " + word, e);
+        }
+    }
+
+    /**
+     * Signal that no more words will be put
+     */
+    public void close() {
+        put(END);
+    }
+
+    /**
+     * @return The next word, or null if there's none within the timeout or the queue has ended
+     */
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (ended) {
+            return null;
+        }
+        String word = queue.poll(timeout, unit);
+        if (word == END) {
+            ended = true;
+            return null;
+        }
+        return word;
+    }
+
+    /**
+     * @return Whether the producer closed the queue and all the words have been taken
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+}